@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable snapshot of a stopped span, created by {@link Span#finish()} and handed to
+ * {@link SpanReporter reporters}.
+ * <p>
+ * The snapshot copies the tags and logs into exactly sized arrays and drops the
+ * reference to the saved span, so reporters may read it from any thread without
+ * locking while the application still holds the live span. Tags and logs added to a
+ * finished span, be it the live span or the snapshot, are rejected and counted in
+ * {@link #getLateMutationCount()}.
+ *
+ * @since 1.0.6
+ */
+public final class FinishedSpan extends Span {
+
+	private static final AtomicLong lateMutations = new AtomicLong();
+
+	FinishedSpan(Span span) {
+		super(span);
+	}
+
+	/**
+	 * Number of tags and logs rejected because their span was already finished
+	 */
+	public static long getLateMutationCount() {
+		return lateMutations.get();
+	}
+
+	static void lateMutation() {
+		lateMutations.incrementAndGet();
+	}
+
+	@Override
+	public FinishedSpan finish() {
+		return this;
+	}
+}
@@ -25,9 +25,10 @@ package com.yoho.core.trace;
  */
 public class Log {
 	/**
-	 * The epoch timestamp of the log record; often set via {@link System#currentTimeMillis()}.
+	 * The epoch timestamp of the log record in microseconds, read from the
+	 * {@link TraceClock} of the span.
 	 */
-	private final long timestamp;
+	private final long timestampMicros;
 
 	/**
 	 * Event (if not null) should be the stable name of some notable moment in the lifetime of a span.
@@ -40,13 +41,31 @@ public class Log {
 	 */
 	private final String event;
 
+	/**
+	 * @param timestamp epoch millis
+	 */
 	public Log(long timestamp, String event) {
-		this.timestamp = timestamp;
+		this(event, timestamp * 1000);
+	}
+
+	private Log(String event, long timestampMicros) {
+		this.timestampMicros = timestampMicros;
 		this.event = event;
 	}
 
+	public static Log fromMicros(long timestampMicros, String event) {
+		return new Log(event, timestampMicros);
+	}
+
+	/**
+	 * The epoch timestamp in milliseconds
+	 */
 	public long getTimestamp() {
-		return this.timestamp;
+		return this.timestampMicros / 1000;
+	}
+
+	public long getTimestampMicros() {
+		return this.timestampMicros;
 	}
 
 	public String getEvent() {
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace;
+
+import java.util.Random;
+
+/**
+ * {@link IdGenerator} backed by a shared {@link Random}, kept for the constructors that
+ * take one. All threads update the same seed, prefer {@link DefaultIdGenerator}.
+ *
+ * @since 1.0.6
+ */
+public class RandomIdGenerator implements IdGenerator {
+
+	private final Random random;
+
+	public RandomIdGenerator(Random random) {
+		this.random = random;
+	}
+
+	@Override
+	public long nextId() {
+		long id;
+		do {
+			id = this.random.nextLong();
+		}
+		while (id == 0);
+		return id;
+	}
+
+	@Override
+	public long nextTraceIdHigh() {
+		return 0;
+	}
+}
@@ -16,14 +16,21 @@
 
 package com.yoho.core.trace;
 
-import java.math.BigInteger;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+import com.yoho.core.trace.util.HexCodec;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -49,12 +56,24 @@ import org.springframework.util.StringUtils;
  * Spring Cloud Sleuth uses Zipkin compatible header names
  *
  * <ul>
- * <li>X-B3-TraceId: 64 encoded bits</li>
+ * <li>X-B3-TraceId: 64 or 128 encoded bits</li>
  * <li>X-B3-SpanId: 64 encoded bits</li>
  * <li>X-B3-ParentSpanId: 64 encoded bits</li>
  * <li>X-B3-Sampled: Boolean (either “1” or “0”)</li>
  * </ul>
  *
+ * Tags and logs are kept in flat arrays which are only allocated once the first tag or
+ * log is recorded, tag keys as {@link TagKey} ids and parent ids in a {@code long[]}.
+ * Use the indexed accessors such as {@link #getTagKey(int)} or
+ * {@link #getParentId(int)} on hot paths, {@link #tags()}, {@link #logs()} and
+ * {@link #getParents()} return read only views that allocate.
+ * <p>
+ * A span and its continued copies may record tags and logs from several threads at
+ * once. Writers lock the arrays of that one span, readers don't lock.
+ * <p>
+ * Timestamps are kept in epoch microseconds, read from the {@link TraceClock} the span
+ * was created with. The millisecond accessors are derived from them.
+ *
  * @author Spencer Gibb
  * @author Marcin Grzejszczak
  * @since 1.0.0
@@ -117,22 +136,39 @@ public class Span {
 	 */
 	public static final String SPAN_PEER_SERVICE_TAG_NAME = "peer.service";
 
+	private static final long[] NO_PARENTS = new long[0];
+	private static final AtomicLongFieldUpdater<Span> END_UPDATER =
+			AtomicLongFieldUpdater.newUpdater(Span.class, "end");
+	private static final AtomicReferenceFieldUpdater<Span, Annotations> ANNOTATIONS_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(Span.class, Annotations.class, "annotations");
+
+	private final TraceClock clock;
+	/** epoch micros */
 	private final long begin;
-	private long end = 0;
+	/** epoch micros, 0 while running, set once by {@link #stop()} */
+	private volatile long end = 0;
 	private final String name;
+	private final long traceIdHigh;
 	private final long traceId;
-	private List<Long> parents = new ArrayList<>();
+	private final long[] parents;
 	private final long spanId;
 	private boolean remote = false;
 	private boolean exportable = true;
-	private final Map<String, String> tags;
 	private final String processId;
-	private final List<Log> logs;
+	/** {@code null} until the first tag or log, shared with continued copies of the span */
+	private volatile Annotations annotations;
+	/** Caps on the tags and logs, {@code null} for an unlimited span */
+	private final SpanLimits limits;
+	/** Budget reservation shared with continued copies, charged once tags or logs are recorded */
+	private final SpanMemoryBudget.Reservation reservation;
 	private final Span savedSpan;
+	/** Hex encodings, computed on first use and shared with continued copies of the span */
+	private String traceIdString;
+	private String spanIdString;
 
 	@SuppressWarnings("unused")
 	private Span() {
-		this(-1,-1,"dummy",0,Collections.<Long>emptyList(),0,false,false,null);
+		this(null,-1,-1,"dummy",0,0,NO_PARENTS,0,false,false,null,null,null,null,null);
 	}
 
 	/**
@@ -142,18 +178,35 @@ public class Span {
 	 * need to be reflected until the span gets closed.
 	 */
 	public Span(Span current, Span savedSpan) {
-		this.begin = current.getBegin();
-		this.end = current.getEnd();
+		this.clock = current.clock;
+		this.begin = current.begin;
+		this.end = current.end;
 		this.name = current.getName();
+		this.traceIdHigh = current.traceIdHigh;
 		this.traceId = current.getTraceId();
-		this.parents = current.getParents();
+		this.parents = current.parents;
 		this.spanId = current.getSpanId();
 		this.remote = current.isRemote();
 		this.exportable = current.isExportable();
 		this.processId = current.getProcessId();
-		this.tags = current.tags;
-		this.logs = current.logs;
+		this.annotations = current.exportable ? current.annotations() : current.annotations;
+		this.limits = current.limits;
+		this.reservation = current.reservation;
 		this.savedSpan = savedSpan;
+		this.traceIdString = current.traceIdString;
+		this.spanIdString = current.spanIdString;
+	}
+
+	/**
+	 * Creates an immutable snapshot of the given span, see {@link FinishedSpan}
+	 */
+	Span(Span span) {
+		this(span.clock, span.begin, span.end, span.name, span.traceIdHigh, span.traceId,
+				span.parents, span.spanId, span.remote, span.exportable, span.processId, null,
+				span.annotations == null ? Annotations.FINISHED : span.annotations.snapshot(),
+				null, null);
+		this.traceIdString = span.traceIdString;
+		this.spanIdString = span.spanIdString;
 	}
 
 	public Span(long begin, long end, String name, long traceId, List<Long> parents,
@@ -165,9 +218,56 @@ public class Span {
 	public Span(long begin, long end, String name, long traceId, List<Long> parents,
 				long spanId, boolean remote, boolean exportable, String processId,
 				Span savedSpan) {
-		this.begin = begin <= 0 ? System.currentTimeMillis() : begin;
-		this.end = end;
+		this(SystemTraceClock.INSTANCE, begin * 1000, end * 1000, name, 0, traceId,
+				toArray(parents), spanId, remote, exportable, processId, savedSpan, null, null,
+				null);
+	}
+
+	/**
+	 * Creates a running span
+	 *
+	 * @param beginMicros epoch micros read from the clock, the current time of the clock
+	 * if not positive
+	 * @param traceIdHigh upper 64 bits of a 128-bit trace id, 0 for 64-bit trace ids
+	 * @param parents parent ids, the array is not copied and must not be changed afterwards
+	 */
+	public Span(TraceClock clock, long beginMicros, String name, long traceIdHigh, long traceId,
+				long[] parents, long spanId, boolean remote, boolean exportable,
+				String processId, Span savedSpan) {
+		this(clock, beginMicros, name, traceIdHigh, traceId, parents, spanId, remote,
+				exportable, processId, savedSpan, null, null);
+	}
+
+	/**
+	 * Creates a running span
+	 *
+	 * @param limits caps on the tags and logs of the span, {@code null} for an unlimited
+	 * span
+	 * @param budget budget the span was {@link SpanMemoryBudget#tryReserveSpan()
+	 * reserved} in, {@code null} if it is not accounted. The reservation is returned
+	 * when the span is stopped.
+	 */
+	public Span(TraceClock clock, long beginMicros, String name, long traceIdHigh, long traceId,
+				long[] parents, long spanId, boolean remote, boolean exportable,
+				String processId, Span savedSpan, SpanLimits limits, SpanMemoryBudget budget) {
+		this(clock, beginMicros, 0, name, traceIdHigh, traceId,
+				parents != null ? parents : NO_PARENTS, spanId, remote, exportable, processId,
+				savedSpan, null, exportable ? limits : null, exportable ? budget : null);
+		if (savedSpan != null && savedSpan.traceId == traceId
+				&& savedSpan.traceIdHigh == traceIdHigh) {
+			this.traceIdString = savedSpan.traceIdString;
+		}
+	}
+
+	private Span(TraceClock clock, long beginMicros, long endMicros, String name,
+				long traceIdHigh, long traceId, long[] parents, long spanId, boolean remote,
+				boolean exportable, String processId, Span savedSpan, Annotations annotations,
+				SpanLimits limits, SpanMemoryBudget budget) {
+		this.clock = clock != null ? clock : SystemTraceClock.INSTANCE;
+		this.begin = beginMicros <= 0 ? this.clock.currentTimeMicros() : beginMicros;
+		this.end = Math.max(0, endMicros);
 		this.name = name != null ? name : "";
+		this.traceIdHigh = traceIdHigh;
 		this.traceId = traceId;
 		this.parents = parents;
 		this.spanId = spanId;
@@ -175,8 +275,20 @@ public class Span {
 		this.exportable = exportable;
 		this.processId = processId;
 		this.savedSpan = savedSpan;
-		this.tags = new LinkedHashMap<>();
-		this.logs = new ArrayList<>();
+		this.annotations = annotations;
+		this.limits = limits;
+		this.reservation = budget == null ? null : budget.track(this);
+	}
+
+	private static long[] toArray(List<Long> parents) {
+		if (parents == null || parents.isEmpty()) {
+			return NO_PARENTS;
+		}
+		long[] ids = new long[parents.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = parents.get(i);
+		}
+		return ids;
 	}
 
 	public static SpanBuilder builder() {
@@ -184,54 +296,108 @@ public class Span {
 	}
 
 	/**
-	 * The block has completed, stop the clock
+	 * The block has completed, stop the clock. Only the first call sets the end time,
+	 * concurrent and later calls leave it unchanged.
 	 */
-	public synchronized void stop() {
+	public void stop() {
 		if (this.end == 0) {
 			if (this.begin == 0) {
 				throw new IllegalStateException(
 						"Span for " + this.name + " has not been started");
 			}
-			this.end = System.currentTimeMillis();
+			if (END_UPDATER.compareAndSet(this, 0, this.clock.currentTimeMicros())
+					&& this.reservation != null) {
+				// shared with continued copies, only the first release counts
+				this.reservation.release();
+			}
+		}
+	}
+
+	/**
+	 * Stops the span and returns an immutable snapshot of it to hand to a
+	 * {@link SpanReporter}. Tags and logs added to the span or its continued copies
+	 * afterwards are rejected and counted, see {@link FinishedSpan}.
+	 */
+	public FinishedSpan finish() {
+		stop();
+		Annotations annotations = this.exportable ? annotations() : this.annotations;
+		if (annotations != null) {
+			annotations.finish();
 		}
+		return new FinishedSpan(this);
 	}
 
 	/**
 	 * Return the total amount of time elapsed since start was called, if running, or
 	 * difference between stop and start
 	 */
-	public synchronized long getAccumulatedMillis() {
+	public long getAccumulatedMillis() {
+		return getAccumulatedMicros() / 1000;
+	}
+
+	/**
+	 * Like {@link #getAccumulatedMillis()}, in microseconds
+	 */
+	public long getAccumulatedMicros() {
 		if (this.begin == 0) {
 			return 0;
 		}
-		if (this.end > 0) {
-			return this.end - this.begin;
+		long end = this.end;
+		if (end > 0) {
+			return end - this.begin;
 		}
-		return System.currentTimeMillis() - this.begin;
+		return this.clock.currentTimeMicros() - this.begin;
 	}
 
 	/**
 	 * Has the span been started and not yet stopped?
 	 */
-	public synchronized boolean isRunning() {
+	public boolean isRunning() {
 		return this.begin != 0 && this.end == 0;
 	}
 
 	/**
 	 * Add a tag or data annotation associated with this span. The tag will be
-	 * added only if it has a value.
+	 * added only if it has a key and a value and the span is
+	 * {@link #isExportable() exportable}.
 	 */
 	public void tag(String key, String value) {
-		if (StringUtils.hasText(value)) {
-			this.tags.put(key, value);
+		if (key != null && this.exportable && StringUtils.hasText(value)) {
+			tag(TagKey.of(key), value);
 		}
 	}
 
 	/**
-	 * Add an {@link Log#event event} to the timeline associated with this span.
+	 * Same as {@link #tag(String, String)} for a key resolved beforehand. A
+	 * {@code null} key, as resolved once the {@link TagKey} registry is full, drops
+	 * the tag.
+	 */
+	public void tag(TagKey key, String value) {
+		if (key != null && this.exportable && StringUtils.hasText(value)) {
+			annotations().putTag(key.getId(), value);
+		}
+	}
+
+	/**
+	 * Add an {@link Log#event event} to the timeline associated with this span, unless
+	 * the span is not {@link #isExportable() exportable}.
 	 */
 	public void logEvent(String event) {
-		this.logs.add(new Log(System.currentTimeMillis(), event));
+		if (this.exportable) {
+			annotations().addLog(this.clock.currentTimeMicros(), event);
+		}
+	}
+
+	private Annotations annotations() {
+		Annotations annotations = this.annotations;
+		if (annotations == null) {
+			// threads sharing the span have to agree on one instance
+			annotations = new Annotations(this.limits, this.reservation);
+			if (!ANNOTATIONS_UPDATER.compareAndSet(this, null, annotations)) {
+				annotations = this.annotations;
+			}
+		}
+		return annotations;
 	}
 
 	/**
@@ -241,7 +407,7 @@ public class Span {
 	 * Will never be null.
 	 */
 	public Map<String, String> tags() {
-		return Collections.unmodifiableMap(this.tags);
+		return new TagsView();
 	}
 
 	/**
@@ -251,7 +417,83 @@ public class Span {
 	 * Will never be null.
 	 */
 	public List<Log> logs() {
-		return Collections.unmodifiableList(this.logs);
+		return new LogsView();
+	}
+
+	public int getTagCount() {
+		return this.annotations == null ? 0 : this.annotations.tagCount;
+	}
+
+	/**
+	 * Key of the tag at the given index, tags keep the order in which they were first added
+	 */
+	public String getTagKey(int index) {
+		Annotations annotations = annotationsAt(index, getTagCount());
+		int keyId = annotations.tagKeys[index];
+		return keyId == TagKey.UNREGISTERED_ID ? annotations.tagNames[index]
+				: TagKey.forId(keyId).getName();
+	}
+
+	/**
+	 * {@link TagKey#getId() Id} of the key of the tag at the given index,
+	 * {@link TagKey#UNREGISTERED_ID} for a key only known by its
+	 * {@link #getTagKey(int) name}
+	 */
+	public int getTagKeyId(int index) {
+		return annotationsAt(index, getTagCount()).tagKeys[index];
+	}
+
+	public String getTagValue(int index) {
+		return annotationsAt(index, getTagCount()).tagValues[index];
+	}
+
+	/**
+	 * Value of the given tag or {@code null}
+	 */
+	public String getTag(String key) {
+		TagKey tagKey = TagKey.find(key);
+		String value = tagKey == null ? null : getTag(tagKey);
+		Annotations annotations = this.annotations;
+		if (value != null || annotations == null || key == null) {
+			return value;
+		}
+		int index = annotations.indexOfTag(key);
+		return index < 0 ? null : annotations.tagValues[index];
+	}
+
+	public String getTag(TagKey key) {
+		Annotations annotations = this.annotations;
+		if (annotations == null) {
+			return null;
+		}
+		int index = annotations.indexOfTag(key.getId());
+		return index < 0 ? null : annotations.tagValues[index];
+	}
+
+	public int getLogCount() {
+		return this.annotations == null ? 0 : this.annotations.logCount;
+	}
+
+	/**
+	 * Epoch millis of the log at the given index
+	 */
+	public long getLogTimestamp(int index) {
+		return getLogTimestampMicros(index) / 1000;
+	}
+
+	public long getLogTimestampMicros(int index) {
+		return annotationsAt(index, getLogCount()).logTimestamps[index];
+	}
+
+	public String getLogEvent(int index) {
+		return annotationsAt(index, getLogCount()).logEvents[index];
+	}
+
+	private Annotations annotationsAt(int index, int count) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+		return this.annotations;
 	}
 
 	/**
@@ -287,12 +529,46 @@ public class Span {
 	}
 
 	/**
-	 * A pseudo-unique (random) number assigned to the trace associated with this span
+	 * A pseudo-unique (random) number assigned to the trace associated with this span,
+	 * the lower 64 bits of a 128-bit trace id
 	 */
 	public long getTraceId() {
 		return this.traceId;
 	}
 
+	/**
+	 * Upper 64 bits of a 128-bit trace id, 0 if the trace id has 64 bits
+	 */
+	public long getTraceIdHigh() {
+		return this.traceIdHigh;
+	}
+
+	/**
+	 * The trace id as sent in {@value #TRACE_ID_NAME}, 32 hex characters for a 128-bit
+	 * trace id
+	 */
+	public String traceIdString() {
+		// racy single check, any thread computes the same immutable string
+		String traceIdString = this.traceIdString;
+		if (traceIdString == null) {
+			traceIdString = traceIdToHex(this.traceIdHigh, this.traceId);
+			this.traceIdString = traceIdString;
+		}
+		return traceIdString;
+	}
+
+	/**
+	 * The span id as sent in {@value #SPAN_ID_NAME}
+	 */
+	public String spanIdString() {
+		String spanIdString = this.spanIdString;
+		if (spanIdString == null) {
+			spanIdString = idToHex(this.spanId);
+			this.spanIdString = spanIdString;
+		}
+		return spanIdString;
+	}
+
 	/**
 	 * Return a unique id for the process from which this span originated.
 	 * <p>
@@ -309,7 +585,27 @@ public class Span {
 	 * The collection will be empty if there are no parents.
 	 */
 	public List<Long> getParents() {
-		return this.parents;
+		return this.parents.length == 0 ? Collections.<Long>emptyList() : new ParentsView();
+	}
+
+	public int getParentCount() {
+		return this.parents.length;
+	}
+
+	public long getParentId(int index) {
+		return this.parents[index];
+	}
+
+	/**
+	 * Is the given span id one of the parents of this span?
+	 */
+	public boolean hasParent(long spanId) {
+		for (long parent : this.parents) {
+			if (parent == spanId) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -324,19 +620,37 @@ public class Span {
 	 * Get the start time, in milliseconds
 	 */
 	public long getBegin() {
-		return this.begin;
+		return this.begin / 1000;
 	}
 
 	/**
 	 * Get the stop time, in milliseconds
 	 */
 	public long getEnd() {
+		return this.end / 1000;
+	}
+
+	public long getBeginMicros() {
+		return this.begin;
+	}
+
+	/**
+	 * Get the stop time in microseconds, 0 while the span is running
+	 */
+	public long getEndMicros() {
 		return this.end;
 	}
 
 	/**
-	 * Is the span eligible for export? If not then we may not need accumulate annotations
-	 * (for instance).
+	 * The clock timing this span, children of the span use it as well
+	 */
+	public TraceClock getClock() {
+		return this.clock;
+	}
+
+	/**
+	 * Is the span eligible for export? If not the span only carries its ids for
+	 * propagation and logging: tags and logs are ignored and it is never reported.
 	 */
 	public boolean isExportable() {
 		return this.exportable;
@@ -346,20 +660,37 @@ public class Span {
 	 * Represents given long id as hex string
 	 */
 	public static String idToHex(long id) {
-		return Long.toHexString(id);
+		return HexCodec.toHex(id);
 	}
 
 	/**
-	 * Represents hex string as long
+	 * Represents a trace id as hex string, the lower bits padded to 16 characters if the
+	 * trace id has 128 bits
+	 */
+	public static String traceIdToHex(long high, long low) {
+		return HexCodec.toHex(high, low);
+	}
+
+	/**
+	 * Represents hex string as long, the lower 64 bits of a 128-bit id
 	 */
 	public static long hexToId(String hexString) {
 		Assert.hasText(hexString, "Can't convert empty hex string to long");
-		return new BigInteger(hexString, 16).longValue();
+		return HexCodec.parseLowHex(hexString);
+	}
+
+	/**
+	 * Upper 64 bits of a trace id of more than 16 hex characters, 0 otherwise. Only the
+	 * rightmost 32 characters are read.
+	 */
+	public static long hexToTraceIdHigh(String hexString) {
+		Assert.hasText(hexString, "Can't convert empty hex string to long");
+		return HexCodec.parseHighHex(hexString);
 	}
 
 	@Override
 	public String toString() {
-		return "[Trace: " + idToHex(this.traceId) + ", Span: " + idToHex(this.spanId) + ", exportable=" + this.exportable + ", tags=" + this.tags() +  "]";
+		return "[Trace: " + traceIdString() + ", Span: " + spanIdString() + ", exportable=" + this.exportable + ", tags=" + this.tags() +  "]";
 	}
 
 	@Override
@@ -368,6 +699,7 @@ public class Span {
 		int result = 1;
 		result = prime * result + (int) (this.spanId ^ (this.spanId >>> 32));
 		result = prime * result + (int) (this.traceId ^ (this.traceId >>> 32));
+		result = prime * result + (int) (this.traceIdHigh ^ (this.traceIdHigh >>> 32));
 		return result;
 	}
 
@@ -377,40 +709,327 @@ public class Span {
 			return true;
 		if (obj == null)
 			return false;
-		if (getClass() != obj.getClass())
+		if (!(obj instanceof Span))
 			return false;
 		Span other = (Span) obj;
 		if (this.spanId != other.spanId)
 			return false;
 		if (this.traceId != other.traceId)
 			return false;
+		if (this.traceIdHigh != other.traceIdHigh)
+			return false;
 		return true;
 	}
 
+	/**
+	 * Tags and logs of a span, grown on demand
+	 */
+	private static final class Annotations {
+
+		private static final String[] NO_STRINGS = new String[0];
+		private static final int[] NO_KEYS = new int[0];
+		private static final long[] NO_TIMESTAMPS = new long[0];
+
+		/** Annotations of a snapshot without tags and logs */
+		static final Annotations FINISHED = new Annotations();
+
+		static {
+			FINISHED.finished = true;
+		}
+
+		/** {@code null} if the span is not capped */
+		final SpanLimits limits;
+		/** {@code null} if the span is not accounted */
+		final SpanMemoryBudget.Reservation reservation;
+		/** set once the span was snapshot, later tags and logs are rejected */
+		boolean finished;
+
+		// Written under the lock of this instance. The counts are written last, so a
+		// reader that reads a count first finds arrays holding at least that many entries.
+		/** {@link TagKey} ids */
+		int[] tagKeys = NO_KEYS;
+		/** names of the {@link TagKey#UNREGISTERED_ID unregistered} keys, {@code null} until there is one */
+		String[] tagNames;
+		String[] tagValues = NO_STRINGS;
+		volatile int tagCount;
+		long[] logTimestamps = NO_TIMESTAMPS;
+		String[] logEvents = NO_STRINGS;
+		volatile int logCount;
+
+		Annotations() {
+			this(null, null);
+		}
+
+		Annotations(SpanLimits limits, SpanMemoryBudget.Reservation reservation) {
+			this.limits = limits;
+			this.reservation = reservation;
+		}
+
+		synchronized void finish() {
+			this.finished = true;
+		}
+
+		private void charge(long bytes) {
+			if (this.reservation != null) {
+				this.reservation.charge(bytes);
+			}
+		}
+
+		Annotations copy() {
+			Annotations copy = new Annotations();
+			copy.tagKeys = Arrays.copyOf(this.tagKeys, this.tagCount);
+			if (this.tagNames != null) {
+				copy.tagNames = Arrays.copyOf(this.tagNames, this.tagCount);
+			}
+			copy.tagValues = Arrays.copyOf(this.tagValues, this.tagCount);
+			copy.tagCount = this.tagCount;
+			copy.logTimestamps = Arrays.copyOf(this.logTimestamps, this.logCount);
+			copy.logEvents = Arrays.copyOf(this.logEvents, this.logCount);
+			copy.logCount = this.logCount;
+			return copy;
+		}
+
+		/**
+		 * Exactly sized copy that rejects changes
+		 */
+		synchronized Annotations snapshot() {
+			if (this.tagCount == 0 && this.logCount == 0) {
+				return FINISHED;
+			}
+			Annotations snapshot = copy();
+			snapshot.finished = true;
+			return snapshot;
+		}
+
+		int indexOfTag(int key) {
+			int count = this.tagCount;
+			int[] keys = this.tagKeys;
+			for (int i = 0; i < count; i++) {
+				if (keys[i] == key) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		int indexOfTag(String name) {
+			String[] names = this.tagNames;
+			if (names == null) {
+				return -1;
+			}
+			int count = this.tagCount;
+			for (int i = 0; i < count; i++) {
+				if (this.tagKeys[i] == TagKey.UNREGISTERED_ID && name.equals(names[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		void putTag(int key, String value) {
+			putTag(key, null, value);
+		}
+
+		/**
+		 * @param name name of an {@link TagKey#UNREGISTERED_ID unregistered} key,
+		 * ignored otherwise
+		 */
+		synchronized void putTag(int key, String name, String value) {
+			if (this.finished) {
+				FinishedSpan.lateMutation();
+				return;
+			}
+			SpanLimits limits = this.limits;
+			if (limits != null && value.length() > limits.getMaxTagValueLength()) {
+				value = value.substring(0, limits.getMaxTagValueLength());
+				limits.tagTruncated();
+			}
+			int index = key == TagKey.UNREGISTERED_ID ? indexOfTag(name) : indexOfTag(key);
+			if (index >= 0) {
+				charge(SpanMemoryBudget.tagBytes(value)
+						- SpanMemoryBudget.tagBytes(this.tagValues[index]));
+				this.tagValues[index] = value;
+				return;
+			}
+			if (limits != null && this.tagCount >= limits.getMaxTagCount()) {
+				limits.tagDropped();
+				return;
+			}
+			charge(SpanMemoryBudget.tagBytes(value));
+			if (this.tagCount == this.tagKeys.length) {
+				int capacity = Math.max(4, this.tagCount * 2);
+				this.tagKeys = Arrays.copyOf(this.tagKeys, capacity);
+				this.tagValues = Arrays.copyOf(this.tagValues, capacity);
+				if (this.tagNames != null) {
+					this.tagNames = Arrays.copyOf(this.tagNames, capacity);
+				}
+			}
+			int count = this.tagCount;
+			if (key == TagKey.UNREGISTERED_ID) {
+				if (this.tagNames == null) {
+					this.tagNames = new String[this.tagKeys.length];
+				}
+				this.tagNames[count] = name;
+			}
+			this.tagKeys[count] = key;
+			this.tagValues[count] = value;
+			this.tagCount = count + 1;
+		}
+
+		synchronized void addLog(long timestamp, String event) {
+			if (this.finished) {
+				FinishedSpan.lateMutation();
+				return;
+			}
+			SpanLimits limits = this.limits;
+			if (limits != null && this.logCount >= limits.getMaxLogCount()) {
+				limits.logDropped();
+				return;
+			}
+			charge(SpanMemoryBudget.LOG_BYTES);
+			if (this.logCount == this.logEvents.length) {
+				int capacity = Math.max(4, this.logCount * 2);
+				this.logTimestamps = Arrays.copyOf(this.logTimestamps, capacity);
+				this.logEvents = Arrays.copyOf(this.logEvents, capacity);
+			}
+			int count = this.logCount;
+			this.logTimestamps[count] = timestamp;
+			this.logEvents[count] = event;
+			this.logCount = count + 1;
+		}
+	}
+
+	private final class TagsView extends AbstractMap<String, String> {
+
+		@Override
+		public int size() {
+			return getTagCount();
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof String && getTag((String) key) != null;
+		}
+
+		@Override
+		public String get(Object key) {
+			return key instanceof String ? getTag((String) key) : null;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new AbstractSet<Entry<String, String>>() {
+				@Override
+				public int size() {
+					return getTagCount();
+				}
+
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					return new Iterator<Entry<String, String>>() {
+						private int index = 0;
+
+						@Override
+						public boolean hasNext() {
+							return this.index < getTagCount();
+						}
+
+						@Override
+						public Entry<String, String> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							int i = this.index++;
+							return new SimpleImmutableEntry<>(getTagKey(i), getTagValue(i));
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+	}
+
+	private final class LogsView extends AbstractList<Log> {
+
+		@Override
+		public Log get(int index) {
+			return Log.fromMicros(getLogTimestampMicros(index), getLogEvent(index));
+		}
+
+		@Override
+		public int size() {
+			return getLogCount();
+		}
+	}
+
+	private final class ParentsView extends AbstractList<Long> {
+
+		@Override
+		public Long get(int index) {
+			return Span.this.parents[index];
+		}
+
+		@Override
+		public int size() {
+			return Span.this.parents.length;
+		}
+	}
+
 	public static class SpanBuilder {
-		private long begin;
-		private long end;
+		private TraceClock clock;
+		private long beginMicros;
+		private long endMicros;
 		private String name;
+		private long traceIdHigh;
 		private long traceId;
-		private ArrayList<Long> parents = new ArrayList<>();
+		private long[] parents = NO_PARENTS;
 		private long spanId;
 		private boolean remote;
 		private boolean exportable = true;
 		private String processId;
 		private Span savedSpan;
-		private List<Log> logs = new ArrayList<>();
-		private Map<String, String> tags = new LinkedHashMap<>();
+		private Annotations annotations;
+		/** the annotations were handed to a built span and have to be copied before changing them */
+		private boolean annotationsShared;
 
 		SpanBuilder() {
 		}
 
+		/**
+		 * Start time in epoch millis, the current time of the clock if not set
+		 */
 		public Span.SpanBuilder begin(long begin) {
-			this.begin = begin;
+			this.beginMicros = begin * 1000;
 			return this;
 		}
 
+		public Span.SpanBuilder beginMicros(long beginMicros) {
+			this.beginMicros = beginMicros;
+			return this;
+		}
+
+		/**
+		 * End time in epoch millis, the span is running if not set
+		 */
 		public Span.SpanBuilder end(long end) {
-			this.end = end;
+			this.endMicros = end * 1000;
+			return this;
+		}
+
+		public Span.SpanBuilder endMicros(long endMicros) {
+			this.endMicros = endMicros;
+			return this;
+		}
+
+		/**
+		 * Defaults to {@link SystemTraceClock#INSTANCE}
+		 */
+		public Span.SpanBuilder clock(TraceClock clock) {
+			this.clock = clock;
 			return this;
 		}
 
@@ -424,36 +1043,83 @@ public class Span {
 			return this;
 		}
 
+		/**
+		 * Upper 64 bits of a 128-bit trace id
+		 */
+		public Span.SpanBuilder traceIdHigh(long traceIdHigh) {
+			this.traceIdHigh = traceIdHigh;
+			return this;
+		}
+
 		public Span.SpanBuilder parent(Long parent) {
-			this.parents.add(parent);
+			// the array is handed to the built span, so it is never changed in place
+			long[] parents = Arrays.copyOf(this.parents, this.parents.length + 1);
+			parents[this.parents.length] = parent;
+			this.parents = parents;
 			return this;
 		}
 
 		public Span.SpanBuilder parents(Collection<Long> parents) {
-			this.parents.addAll(parents);
+			for (Long parent : parents) {
+				parent(parent);
+			}
 			return this;
 		}
 
 		public Span.SpanBuilder log(Log log) {
-			this.logs.add(log);
+			annotations().addLog(log.getTimestampMicros(), log.getEvent());
 			return this;
 		}
 
 		public Span.SpanBuilder logs(Collection<Log> logs) {
-			this.logs.addAll(logs);
+			for (Log log : logs) {
+				log(log);
+			}
 			return this;
 		}
 
+		/**
+		 * Unlike {@link Span#tag(String, String)} a key that is not registered yet is
+		 * kept by name on the span rather than registered, so that spans decoded from
+		 * other processes can't fill the {@link TagKey} registry.
+		 */
 		public Span.SpanBuilder tag(String tagKey, String tagValue) {
-			this.tags.put(tagKey, tagValue);
+			if (tagKey == null) {
+				return this;
+			}
+			TagKey key = TagKey.find(tagKey);
+			if (key != null) {
+				return tag(key, tagValue);
+			}
+			annotations().putTag(TagKey.UNREGISTERED_ID, tagKey, tagValue);
+			return this;
+		}
+
+		public Span.SpanBuilder tag(TagKey tagKey, String tagValue) {
+			if (tagKey != null) {
+				annotations().putTag(tagKey.getId(), tagValue);
+			}
 			return this;
 		}
 
 		public Span.SpanBuilder tags(Map<String, String> tags) {
-			this.tags.putAll(tags);
+			for (Map.Entry<String, String> tag : tags.entrySet()) {
+				tag(tag.getKey(), tag.getValue());
+			}
 			return this;
 		}
 
+		private Annotations annotations() {
+			if (this.annotations == null) {
+				this.annotations = new Annotations();
+			}
+			else if (this.annotationsShared) {
+				this.annotations = this.annotations.copy();
+				this.annotationsShared = false;
+			}
+			return this.annotations;
+		}
+
 		public Span.SpanBuilder spanId(long spanId) {
 			this.spanId = spanId;
 			return this;
@@ -479,30 +1145,34 @@ public class Span {
 			return this;
 		}
 
+		/**
+		 * Hands the tags and logs over to the span without copying them. A builder used
+		 * again afterwards continues with a copy of the tags and logs of that span.
+		 */
 		public Span build() {
-			Span span = new Span(this.begin, this.end, this.name, this.traceId,
-					this.parents, this.spanId, this.remote, this.exportable,
-					this.processId, this.savedSpan);
-			span.logs.addAll(this.logs);
-			span.tags.putAll(this.tags);
-			return span;
+			Annotations annotations = this.annotationsShared ? this.annotations.copy() : this.annotations;
+			this.annotationsShared = this.annotations != null;
+			return new Span(this.clock, this.beginMicros, this.endMicros, this.name,
+					this.traceIdHigh, this.traceId, this.parents, this.spanId, this.remote,
+					this.exportable, this.processId, this.savedSpan, annotations, null, null);
 		}
 
 		@Override
 		public String toString() {
 			return "SpanBuilder{" +
-					"begin=" + this.begin +
-					", end=" + this.end +
+					"beginMicros=" + this.beginMicros +
+					", endMicros=" + this.endMicros +
 					", name=" + this.name +
+					", traceIdHigh=" + this.traceIdHigh +
 					", traceId=" + this.traceId +
-					", parents=" + this.parents +
+					", parents=" + Arrays.toString(this.parents) +
 					", spanId=" + this.spanId +
 					", remote=" + this.remote +
 					", exportable=" + this.exportable +
 					", processId='" + this.processId + '\'' +
 					", savedSpan=" + this.savedSpan +
-					", logs=" + this.logs +
-					", tags=" + this.tags +
+					", tags=" + (this.annotations == null ? 0 : this.annotations.tagCount) +
+					", logs=" + (this.annotations == null ? 0 : this.annotations.logCount) +
 					'}';
 		}
 	}
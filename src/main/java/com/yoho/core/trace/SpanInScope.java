@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+/**
+ * A span made current on this thread by {@link Tracer#withSpanInScope(Span)}. Closing
+ * it makes the span that was current before it current again, so it is meant for
+ * try-with-resources:
+ * <pre>{@code
+ *     try (SpanInScope ws = tracer.withSpanInScope(span)) {
+ *         // span is the current span here
+ *     }
+ * }</pre>
+ * A scope must be closed on the thread that opened it. Closing it neither stops nor
+ * reports the span.
+ *
+ * @since 1.0.6
+ */
+public interface SpanInScope extends AutoCloseable {
+
+	/**
+	 * Restores the span that was current before this scope. Closing twice is a no-op.
+	 */
+	@Override
+	void close();
+}
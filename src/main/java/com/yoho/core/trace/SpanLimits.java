@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.yoho.core.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps on the tags and logs of a single span, applied to every exportable span the
+ * tracer starts whether or not a {@link SpanMemoryBudget} accounts for it. Tags with
+ * new keys beyond {@link #setMaxTagCount(int) maxTagCount} and logs beyond
+ * {@link #setMaxLogCount(int) maxLogCount} are dropped, longer tag values are
+ * truncated. Spans built through {@link Span.SpanBuilder}, such as decoded ones, are
+ * not capped.
+ *
+ * @since 1.0.6
+ */
+public class SpanLimits {
+
+	private volatile int maxTagCount = 64;
+	private volatile int maxTagValueLength = 4096;
+	private volatile int maxLogCount = 256;
+
+	private final AtomicLong droppedTags = new AtomicLong();
+	private final AtomicLong truncatedTags = new AtomicLong();
+	private final AtomicLong droppedLogs = new AtomicLong();
+
+	void tagDropped() {
+		this.droppedTags.incrementAndGet();
+	}
+
+	void tagTruncated() {
+		this.truncatedTags.incrementAndGet();
+	}
+
+	void logDropped() {
+		this.droppedLogs.incrementAndGet();
+	}
+
+	public int getMaxTagCount() {
+		return this.maxTagCount;
+	}
+
+	/**
+	 * Tags with new keys beyond this count are dropped, 64 by default
+	 */
+	public void setMaxTagCount(int maxTagCount) {
+		this.maxTagCount = maxTagCount;
+	}
+
+	public int getMaxTagValueLength() {
+		return this.maxTagValueLength;
+	}
+
+	/**
+	 * Longer tag values are truncated to this many chars, 4096 by default
+	 */
+	public void setMaxTagValueLength(int maxTagValueLength) {
+		this.maxTagValueLength = maxTagValueLength;
+	}
+
+	public int getMaxLogCount() {
+		return this.maxLogCount;
+	}
+
+	/**
+	 * Logs beyond this count are dropped, 256 by default
+	 */
+	public void setMaxLogCount(int maxLogCount) {
+		this.maxLogCount = maxLogCount;
+	}
+
+	public long getDroppedTags() {
+		return this.droppedTags.get();
+	}
+
+	public long getTruncatedTags() {
+		return this.truncatedTags.get();
+	}
+
+	public long getDroppedLogs() {
+		return this.droppedLogs.get();
+	}
+}
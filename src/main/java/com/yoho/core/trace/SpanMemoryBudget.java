@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Accounts the estimated heap held by exportable spans between their start and
+ * {@link Span#stop() stop}.
+ * <p>
+ * The estimate covers the span, its tag values and its logs, not the strings shared
+ * with the application such as constant keys and events. Once the spans in flight use
+ * {@link #setMaxBytes(long) maxBytes} the tracer starts new spans as non-exportable:
+ * they still propagate the trace but record nothing and are not reported. Spans already
+ * running keep recording within their {@link SpanLimits}, so the budget can be exceeded
+ * by at most the caps of the running spans.
+ * <p>
+ * A span returns its reservation when it is stopped. A span that is detached and never
+ * stopped returns it once it has been garbage collected: reservations only weakly
+ * reference their span and collected ones are reclaimed whenever a span is reserved or
+ * the totals are read. The tracer set up by {@code spring-core-trace.xml} uses a budget
+ * with the defaults, it may be registered as an MBean named
+ * {@code com.yoho.core.trace:type=SpanMemoryBudget}:
+ * <pre>{@code
+ * <bean id="trace.memoryBudget" class="com.yoho.core.trace.SpanMemoryBudget"
+ *       init-method="register" destroy-method="unregister">
+ *     <property name="maxBytes" value="67108864"/>
+ * </bean>
+ * }</pre>
+ *
+ * @since 1.0.6
+ */
+public class SpanMemoryBudget implements SpanMemoryBudgetMBean {
+
+	private static final Log log = LogFactory.getLog(SpanMemoryBudget.class);
+
+	/** Estimated size of a span with empty tag and log arrays */
+	static final long SPAN_BYTES = 256;
+
+	/** Estimated size of a tag without its value chars, the key is shared */
+	static final long TAG_BYTES = 48;
+
+	/** Estimated size of a log, the event is usually a shared constant */
+	static final long LOG_BYTES = 16;
+
+	private volatile long maxBytes = 64L * 1024 * 1024;
+	private ObjectName objectName;
+
+	private final AtomicLong usedBytes = new AtomicLong();
+	private final AtomicLong liveSpans = new AtomicLong();
+	private final AtomicLong degradedSpans = new AtomicLong();
+	private final AtomicLong reclaimedSpans = new AtomicLong();
+
+	/** Keeps the reservations reachable until they are released or reclaimed */
+	private final Set<Reservation> reservations = ConcurrentHashMap.newKeySet();
+	private final ReferenceQueue<Span> collectedSpans = new ReferenceQueue<>();
+
+	/**
+	 * Reserves room for a new exportable span, pass the budget to the span which
+	 * tracks the reservation until it is stopped or collected
+	 *
+	 * @return {@code false} if the budget is used up, the span should be degraded
+	 */
+	public boolean tryReserveSpan() {
+		reclaimCollectedSpans();
+		long used;
+		do {
+			used = this.usedBytes.get();
+			if (used + SPAN_BYTES > this.maxBytes) {
+				this.degradedSpans.incrementAndGet();
+				return false;
+			}
+		}
+		while (!this.usedBytes.compareAndSet(used, used + SPAN_BYTES));
+		this.liveSpans.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Ties a reservation made by {@link #tryReserveSpan()} to the span that holds it
+	 */
+	Reservation track(Span span) {
+		Reservation reservation = new Reservation(this, span);
+		this.reservations.add(reservation);
+		return reservation;
+	}
+
+	private void reclaimCollectedSpans() {
+		Reference<? extends Span> collected;
+		while ((collected = this.collectedSpans.poll()) != null) {
+			if (((Reservation) collected).release()) {
+				this.reclaimedSpans.incrementAndGet();
+			}
+		}
+	}
+
+	static long tagBytes(String value) {
+		return TAG_BYTES + 2L * value.length();
+	}
+
+	/**
+	 * Registers the MBean with the platform MBean server
+	 */
+	public synchronized void register() throws JMException {
+		if (this.objectName != null) {
+			return;
+		}
+		ObjectName objectName = new ObjectName("com.yoho.core.trace:type=SpanMemoryBudget");
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		this.objectName = objectName;
+	}
+
+	public synchronized void unregister() {
+		if (this.objectName == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(this.objectName);
+		}
+		catch (JMException e) {
+			log.warn("Can't unregister " + this.objectName, e);
+		}
+		this.objectName = null;
+	}
+
+	@Override
+	public long getMaxBytes() {
+		return this.maxBytes;
+	}
+
+	/**
+	 * Estimated bytes of the spans in flight beyond which new spans are degraded to
+	 * non-exportable, 64 MB by default
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public long getUsedBytes() {
+		reclaimCollectedSpans();
+		return this.usedBytes.get();
+	}
+
+	/**
+	 * Exportable spans started and neither stopped nor collected yet
+	 */
+	@Override
+	public long getLiveSpans() {
+		reclaimCollectedSpans();
+		return this.liveSpans.get();
+	}
+
+	/**
+	 * Spans started as non-exportable because the budget was used up
+	 */
+	@Override
+	public long getDegradedSpans() {
+		return this.degradedSpans.get();
+	}
+
+	/**
+	 * Spans whose reservation was returned because they were collected without being
+	 * stopped, typically detached and never closed
+	 */
+	@Override
+	public long getReclaimedSpans() {
+		reclaimCollectedSpans();
+		return this.reclaimedSpans.get();
+	}
+
+	/**
+	 * The reservation of one span, shared with its continued copies. It references the
+	 * span that reserved it, a copy outliving that span may therefore be released
+	 * early, never late.
+	 */
+	static final class Reservation extends WeakReference<Span> {
+
+		private final SpanMemoryBudget budget;
+		/** guarded by this */
+		private long bytes = SPAN_BYTES;
+		/** guarded by this */
+		private boolean released;
+
+		Reservation(SpanMemoryBudget budget, Span span) {
+			super(span, budget.collectedSpans);
+			this.budget = budget;
+		}
+
+		/**
+		 * Adds to the bytes held by the span, nothing once it is released
+		 */
+		synchronized void charge(long bytes) {
+			if (!this.released) {
+				this.bytes += bytes;
+				this.budget.usedBytes.addAndGet(bytes);
+			}
+		}
+
+		/**
+		 * @return whether this call released the reservation, only the first one does
+		 */
+		synchronized boolean release() {
+			if (this.released) {
+				return false;
+			}
+			this.released = true;
+			clear();
+			this.budget.reservations.remove(this);
+			this.budget.usedBytes.addAndGet(-this.bytes);
+			this.budget.liveSpans.decrementAndGet();
+			return true;
+		}
+	}
+}
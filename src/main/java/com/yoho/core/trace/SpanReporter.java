@@ -26,6 +26,9 @@ public interface SpanReporter {
 	/**
 	 * Reports a completed span out of band, usually out of process.
 	 * This is typically to a trace depot (ex zipkin) or a log file.
+	 * <p>
+	 * The tracer reports {@link FinishedSpan} snapshots which are safe to keep and read
+	 * from other threads.
 	 */
 	void report(Span span);
 }
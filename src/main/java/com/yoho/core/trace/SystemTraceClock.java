@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link TraceClock} reading the wall clock once, when it is created, and deriving
+ * every later timestamp from {@link System#nanoTime()}. Durations measured with it are
+ * monotonic and precise to the microsecond even though
+ * {@link System#currentTimeMillis()} only has millisecond resolution.
+ * <p>
+ * {@link #anchor()} returns a freshly anchored clock, so the drift between the wall
+ * clock and {@code nanoTime} is bounded by the lifetime of a trace. {@link #INSTANCE}
+ * lives as long as the process and re-reads the wall clock every
+ * {@link #REANCHOR_INTERVAL_NANOS} instead. It still never goes backwards: a new anchor
+ * never starts behind the one it replaces, so a wall clock stepped back is caught up
+ * with rather than followed, and it never returns less than it already returned to any
+ * thread.
+ *
+ * @since 1.0.6
+ */
+public final class SystemTraceClock implements TraceClock {
+
+	static final long REANCHOR_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Clock used by spans created without a clock, re-anchored every second
+	 */
+	public static final SystemTraceClock INSTANCE = new SystemTraceClock(REANCHOR_INTERVAL_NANOS);
+
+	private final long reanchorIntervalNanos;
+
+	private final AtomicReference<Anchor> anchor;
+
+	/** Last timestamp handed out, only kept by a re-anchoring clock */
+	private final AtomicLong lastMicros;
+
+	public SystemTraceClock() {
+		this(Long.MAX_VALUE);
+	}
+
+	SystemTraceClock(long reanchorIntervalNanos) {
+		this.reanchorIntervalNanos = reanchorIntervalNanos;
+		long nanos = System.nanoTime();
+		this.anchor = new AtomicReference<>(new Anchor(
+				TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()), nanos));
+		this.lastMicros = reanchorIntervalNanos == Long.MAX_VALUE ? null : new AtomicLong();
+	}
+
+	@Override
+	public long currentTimeMicros() {
+		Anchor anchor = this.anchor.get();
+		long nanos = System.nanoTime();
+		if (this.lastMicros == null) {
+			// nanoTime is monotonic, an anchor that is never replaced is too
+			return anchor.micros(nanos);
+		}
+		if (nanos - anchor.nanos > this.reanchorIntervalNanos) {
+			anchor = reanchor(anchor, nanos);
+		}
+		// a thread still on the replaced anchor may be behind what was handed out
+		return handOut(anchor.micros(nanos));
+	}
+
+	@Override
+	public TraceClock anchor() {
+		return new SystemTraceClock();
+	}
+
+	/**
+	 * Replaces the anchor, or returns the one a racing thread installed
+	 */
+	private Anchor reanchor(Anchor anchor, long nanos) {
+		long wallNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+		Anchor next = new Anchor(Math.max(wallNanos, anchor.epochNanos(nanos)), nanos);
+		if (this.anchor.compareAndSet(anchor, next)) {
+			return next;
+		}
+		return this.anchor.get();
+	}
+
+	private long handOut(long micros) {
+		for (;;) {
+			long last = this.lastMicros.get();
+			if (micros <= last) {
+				return last;
+			}
+			if (this.lastMicros.compareAndSet(last, micros)) {
+				return micros;
+			}
+		}
+	}
+
+	private static final class Anchor {
+
+		final long epochNanos;
+
+		final long nanos;
+
+		Anchor(long epochNanos, long nanos) {
+			this.epochNanos = epochNanos;
+			this.nanos = nanos;
+		}
+
+		long epochNanos(long nanos) {
+			return this.epochNanos + (nanos - this.nanos);
+		}
+
+		long micros(long nanos) {
+			return epochNanos(nanos) / 1000;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.yoho.core.trace.util.ExceptionUtils;
+
+/**
+ * A span tag key with a small int id, unique within the JVM.
+ * <p>
+ * Spans store their tags by key id and encoders keep per batch tables indexed by it,
+ * so a key name is hashed once when it is resolved and written once per batch. Keys
+ * are registered on first use and never removed. {@link #registerAll(TraceKeys)}
+ * gives the well-known keys the lowest ids at startup, instrumentation resolves its
+ * keys once and tags through {@link Span#tag(TagKey, String)}.
+ * <p>
+ * The registry is meant for a bounded set of key names: once {@link #MAX_KEYS} keys
+ * are registered new names are no longer resolved and tags using them are dropped,
+ * with a single warning. Spans built through {@link Span.SpanBuilder}, such as those
+ * decoded from other processes, only look their keys up and keep unknown ones by name.
+ *
+ * @since 1.0.6
+ */
+public final class TagKey {
+
+	public static final int MAX_KEYS = 1 << 12;
+
+	/**
+	 * Id reported by {@link Span#getTagKeyId(int)} for a tag whose key is not registered,
+	 * see {@link Span.SpanBuilder#tag(String, String)}
+	 */
+	public static final int UNREGISTERED_ID = -1;
+
+	private static final ConcurrentMap<String, TagKey> KEYS_BY_NAME = new ConcurrentHashMap<>();
+
+	/** Replaced as a whole on registration, entries below {@link #size} never change */
+	private static volatile TagKey[] keysById = new TagKey[64];
+
+	private static volatile int size;
+
+	/** Set once {@link #MAX_KEYS} keys are registered, no key can be added after it */
+	private static volatile boolean full;
+
+	public static final TagKey LOCAL_COMPONENT = of(Span.SPAN_LOCAL_COMPONENT_TAG_NAME);
+
+	public static final TagKey PEER_SERVICE = of(Span.SPAN_PEER_SERVICE_TAG_NAME);
+
+	private final int id;
+
+	private final String name;
+
+	private TagKey(int id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+	/**
+	 * Returns the key of the given name, registering it if needed
+	 *
+	 * @return {@code null} if the name is new and {@link #MAX_KEYS} keys are registered
+	 * @throws IllegalArgumentException if the name is {@code null}
+	 */
+	public static TagKey of(String name) {
+		if (name == null) {
+			throw new IllegalArgumentException("Tag key must not be null");
+		}
+		TagKey key = KEYS_BY_NAME.get(name);
+		return key != null || full ? key : register(name);
+	}
+
+	/**
+	 * Returns the key of the given name or {@code null} if it was never registered
+	 */
+	public static TagKey find(String name) {
+		return name == null ? null : KEYS_BY_NAME.get(name);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if no key has the given id
+	 */
+	public static TagKey forId(int id) {
+		TagKey[] keys = keysById;
+		TagKey key = id >= 0 && id < keys.length ? keys[id] : null;
+		if (key == null) {
+			throw new IllegalArgumentException("Unknown tag key id " + id);
+		}
+		return key;
+	}
+
+	/**
+	 * Number of registered keys, all ids are below it
+	 */
+	public static int size() {
+		return size;
+	}
+
+	/**
+	 * Registers the keys defined by the given {@link TraceKeys}, including the
+	 * configured header and prefixed keys
+	 */
+	public static void registerAll(TraceKeys traceKeys) {
+		of(traceKeys.getYoho().getUid());
+		of(traceKeys.getYoho().getOrderCode());
+		TraceKeys.Http http = traceKeys.getHttp();
+		of(http.getUrl());
+		of(http.getHost());
+		of(http.getPath());
+		of(http.getMethod());
+		of(http.getStatusCode());
+		of(http.getRequestSize());
+		of(http.getResponseSize());
+		for (String header : http.getHeaders()) {
+			of(http.getPrefix() + header.toLowerCase());
+		}
+		TraceKeys.Hystrix hystrix = traceKeys.getHystrix();
+		of(hystrix.getPrefix() + hystrix.getCommandKey());
+		of(hystrix.getPrefix() + hystrix.getCommandGroup());
+		of(hystrix.getPrefix() + hystrix.getThreadPoolKey());
+		TraceKeys.Async async = traceKeys.getAsync();
+		of(async.getPrefix() + async.getThreadNameKey());
+		of(async.getPrefix() + async.getClassNameKey());
+		of(async.getPrefix() + async.getMethodNameKey());
+		of(async.getPrefix() + async.getQueueWaitKey());
+		of(async.getPrefix() + async.getRunTimeKey());
+		of(async.getPrefix() + async.getSlowestTaskKey());
+		TraceKeys.Message message = traceKeys.getMessage();
+		of(message.getPayload().getSize());
+		of(message.getPayload().getType());
+		for (String header : message.getHeaders()) {
+			of(message.getPrefix() + header.toLowerCase());
+		}
+	}
+
+	private static synchronized TagKey register(String name) {
+		TagKey key = KEYS_BY_NAME.get(name);
+		if (key != null) {
+			return key;
+		}
+		if (size >= MAX_KEYS) {
+			if (!full) {
+				full = true;
+				ExceptionUtils.warn("Tag key registry is full with " + MAX_KEYS
+						+ " keys, dropping tags with new keys such as " + name);
+			}
+			return null;
+		}
+		key = new TagKey(size, name);
+		TagKey[] keys = keysById;
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, keys.length * 2);
+		}
+		else {
+			keys = keys.clone();
+		}
+		keys[size] = key;
+		// published by id before by name and size, a key found either way resolves by id
+		keysById = keys;
+		KEYS_BY_NAME.put(name, key);
+		size = key.id + 1;
+		return key;
+	}
+
+	public int getId() {
+		return this.id;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace;
+
+/**
+ * Source of span and log timestamps in epoch microseconds.
+ * <p>
+ * Every local root span asks the tracer's clock for {@link #anchor() an anchored
+ * clock} and hands it down to its children, so all timestamps of a trace in this
+ * process come from the same time base.
+ *
+ * @since 1.0.6
+ * @see SystemTraceClock
+ */
+public interface TraceClock {
+
+	/**
+	 * Current time in microseconds since the epoch
+	 */
+	long currentTimeMicros();
+
+	/**
+	 * Clock for the spans of a new local root, may return this clock
+	 */
+	TraceClock anchor();
+}
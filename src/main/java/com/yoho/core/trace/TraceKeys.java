@@ -448,6 +448,24 @@ public class TraceKeys {
 		 */
 		private String methodNameKey = "method";
 
+		/**
+		 * Microseconds a task of a traced batch, like
+		 * {@link java.util.concurrent.ExecutorService#invokeAll(java.util.Collection)},
+		 * waited from submission until it started running
+		 */
+		private String queueWaitKey = "queue.wait.us";
+
+		/**
+		 * Microseconds a task of a traced batch ran
+		 */
+		private String runTimeKey = "run.us";
+
+		/**
+		 * Span id of the task of a traced batch that took longest from submission until
+		 * it completed, tagged on the span grouping the batch
+		 */
+		private String slowestTaskKey = "slowest.task";
+
 		public String getPrefix() {
 			return this.prefix;
 		}
@@ -464,6 +482,18 @@ public class TraceKeys {
 			return this.methodNameKey;
 		}
 
+		public String getQueueWaitKey() {
+			return this.queueWaitKey;
+		}
+
+		public String getRunTimeKey() {
+			return this.runTimeKey;
+		}
+
+		public String getSlowestTaskKey() {
+			return this.slowestTaskKey;
+		}
+
 		public void setPrefix(String prefix) {
 			this.prefix = prefix;
 		}
@@ -480,6 +510,18 @@ public class TraceKeys {
 			this.methodNameKey = methodNameKey;
 		}
 
+		public void setQueueWaitKey(String queueWaitKey) {
+			this.queueWaitKey = queueWaitKey;
+		}
+
+		public void setRunTimeKey(String runTimeKey) {
+			this.runTimeKey = runTimeKey;
+		}
+
+		public void setSlowestTaskKey(String slowestTaskKey) {
+			this.slowestTaskKey = slowestTaskKey;
+		}
+
 	}
 
 }
@@ -92,6 +92,48 @@ public interface Tracer extends SpanAccessor {
 	 */
 	Span continueSpan(Span span);
 
+	/**
+	 * Makes the given span, typically one started in another thread, the current span
+	 * until the returned scope is closed. Unlike {@link #continueSpan(Span)} the span
+	 * itself is made current, no copy of it is created, and closing the scope restores
+	 * whatever was current before instead of clearing the thread.
+	 * <p>
+	 * The default implementation is for tracers that predate it: it continues the span
+	 * and, on close, detaches the continued copy and continues the previous span again.
+	 * That still copies the span and only restores the top of the previous context,
+	 * {@link com.yoho.core.trace.trace.DefaultTracer} overrides it with the copy-free
+	 * version described above.
+	 *
+	 * @param span the span to make current, {@code null} only leaves the thread as it is
+	 */
+	default SpanInScope withSpanInScope(Span span) {
+		final Span previous = getCurrentSpan();
+		if (span == null || span.equals(previous)) {
+			return new SpanInScope() {
+				@Override
+				public void close() {
+				}
+			};
+		}
+		final Span continued = continueSpan(span);
+		return new SpanInScope() {
+
+			private boolean closed;
+
+			@Override
+			public void close() {
+				if (this.closed) {
+					return;
+				}
+				this.closed = true;
+				detach(continued);
+				if (previous != null) {
+					continueSpan(previous);
+				}
+			}
+		};
+	}
+
 	/**
 	 * Adds a tag to the current span if tracing is currently on.
 	 * <p>
@@ -102,6 +144,14 @@ public interface Tracer extends SpanAccessor {
 	 */
 	void addTag(String key, String value);
 
+	/**
+	 * Same as {@link #addTag(String, String)} for a key resolved beforehand. The default
+	 * implementation just passes the key name on, tracers override it to skip the lookup.
+	 */
+	default void addTag(TagKey key, String value) {
+		addTag(key.getName(), value);
+	}
+
 	/**
 	 * Remove this span from the current thread, but don't stop it yet or send it for
 	 * collection. This is useful if the span object is then passed to another thread for
@@ -0,0 +1,516 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.yoho.core.trace.Log;
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.TagKey;
+
+/**
+ * Compact binary {@link SpanCodec}, also usable as a batch {@link SpanEncoder}.
+ * <p>
+ * Layout of a span:
+ * <pre>
+ * flags            1 byte  (remote, exportable, same trace, 128-bit trace id)
+ * traceIdHigh      8 bytes, only with the 128-bit trace id flag and not same trace
+ * traceId          8 bytes, omitted if the same trace flag is set
+ * spanId           8 bytes
+ * begin            varint, epoch micros
+ * end              varint, 0 when not stopped, otherwise end - begin + 1
+ * name, processId  string
+ * parents          varint count, 8 bytes each
+ * tags             varint count, (key string ref, value string) pairs
+ * logs             varint count, (zigzag varint timestamp - begin, event string ref) pairs
+ * </pre>
+ * Strings are a varint UTF-8 length followed by the bytes, length 0 meaning
+ * {@code null} and length 1 the empty string. Tag keys and log events are written
+ * as string refs: the first occurrence is a string tagged {@code 0} in the low bit
+ * of its length, later occurrences only the dictionary index tagged {@code 1}. So
+ * the key names are sent once per batch, while spans refer to them by the JVM local
+ * {@link TagKey} id.
+ * <p>
+ * Within a batch a span of the same trace as the span before it only sets the same
+ * trace flag, so batches grouped by trace (see
+ * {@link com.yoho.core.trace.reporter.TraceBundlingSpanSender}) carry each trace id once.
+ * <p>
+ * Ids are written with a fixed width - they are random 64 bit numbers for which a
+ * varint would take more than 8 bytes on average.
+ * <p>
+ * {@link #encode(Span, ByteBuffer)} writes a self contained record. Use
+ * {@link #encode(List, ByteBuffer)} to share one dictionary across a batch. Strings
+ * are encoded straight into the buffer, tags and logs are read by index through
+ * {@link Span#getTagKeyId(int)} and {@link Span#getLogEvent(int)}, and the dictionary
+ * is a reused per-thread table, so once a thread has encoded its first batch encoding
+ * into a large enough buffer allocates nothing. Instances are thread safe.
+ *
+ * @since 1.0.6
+ */
+public class CompactSpanCodec implements SpanCodec, SpanEncoder {
+
+	public static final String MEDIA_TYPE = "application/x-yoho-trace-spans";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int FLAG_REMOTE = 1;
+	private static final int FLAG_EXPORTABLE = 1 << 1;
+	private static final int FLAG_SAME_TRACE = 1 << 2;
+	private static final int FLAG_TRACE_ID_HIGH = 1 << 3;
+	private static final int MAX_DICTIONARY_ENTRIES = 1 << 12;
+	private static final int INITIAL_OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+	private final ThreadLocal<Dictionary> dictionaries = new ThreadLocal<Dictionary>() {
+		@Override
+		protected Dictionary initialValue() {
+			return new Dictionary();
+		}
+	};
+
+	private final ThreadLocal<ByteBuffer[]> outputBuffers = new ThreadLocal<ByteBuffer[]>() {
+		@Override
+		protected ByteBuffer[] initialValue() {
+			return new ByteBuffer[] { ByteBuffer.allocate(INITIAL_OUTPUT_BUFFER_SIZE) };
+		}
+	};
+
+	@Override
+	public void encode(Span span, ByteBuffer buffer) {
+		Dictionary dictionary = this.dictionaries.get();
+		dictionary.clear();
+		writeSpan(span, null, buffer, dictionary);
+	}
+
+	/**
+	 * Writes the spans as a varint count followed by the spans sharing a single
+	 * string dictionary.
+	 */
+	public void encode(List<Span> spans, ByteBuffer buffer) {
+		Dictionary dictionary = this.dictionaries.get();
+		dictionary.clear();
+		int size = spans.size();
+		writeVarint(buffer, size);
+		Span previous = null;
+		for (int i = 0; i < size; i++) {
+			Span span = spans.get(i);
+			writeSpan(span, previous, buffer, dictionary);
+			previous = span;
+		}
+	}
+
+	/**
+	 * Writes the batch like {@link #encode(List, ByteBuffer)} does, through a per-thread
+	 * buffer that grows until the largest batch seen fits.
+	 */
+	@Override
+	public void encode(List<Span> spans, OutputStream out) throws IOException {
+		ByteBuffer[] holder = this.outputBuffers.get();
+		for (;;) {
+			ByteBuffer buffer = holder[0];
+			buffer.clear();
+			try {
+				encode(spans, buffer);
+				out.write(buffer.array(), 0, buffer.position());
+				out.flush();
+				return;
+			}
+			catch (BufferOverflowException e) {
+				holder[0] = ByteBuffer.allocate(buffer.capacity() * 2);
+			}
+		}
+	}
+
+	@Override
+	public String getMediaType() {
+		return MEDIA_TYPE;
+	}
+
+	@Override
+	public Span decode(ByteBuffer buffer) {
+		return readSpan(buffer, null, new ArrayList<String>());
+	}
+
+	/**
+	 * Reads spans written by {@link #encode(List, ByteBuffer)}
+	 */
+	public List<Span> decodeList(ByteBuffer buffer) {
+		int size = readLength(buffer);
+		List<String> dictionary = new ArrayList<>();
+		List<Span> spans = new ArrayList<>(size);
+		Span previous = null;
+		for (int i = 0; i < size; i++) {
+			previous = readSpan(buffer, previous, dictionary);
+			spans.add(previous);
+		}
+		return spans;
+	}
+
+	private void writeSpan(Span span, Span previous, ByteBuffer buffer, Dictionary dictionary) {
+		boolean sameTrace = previous != null && previous.getTraceId() == span.getTraceId()
+				&& previous.getTraceIdHigh() == span.getTraceIdHigh();
+		boolean traceIdHigh = !sameTrace && span.getTraceIdHigh() != 0;
+		int flags = (span.isRemote() ? FLAG_REMOTE : 0) | (span.isExportable() ? FLAG_EXPORTABLE : 0)
+				| (sameTrace ? FLAG_SAME_TRACE : 0) | (traceIdHigh ? FLAG_TRACE_ID_HIGH : 0);
+		buffer.put((byte) flags);
+		if (traceIdHigh) {
+			buffer.putLong(span.getTraceIdHigh());
+		}
+		if (!sameTrace) {
+			buffer.putLong(span.getTraceId());
+		}
+		buffer.putLong(span.getSpanId());
+		long begin = span.getBeginMicros();
+		long end = span.getEndMicros();
+		writeVarint(buffer, begin);
+		writeVarint(buffer, end == 0 ? 0 : end - begin + 1);
+		writeString(buffer, span.getName());
+		writeString(buffer, span.getProcessId());
+		int parentCount = span.getParentCount();
+		writeVarint(buffer, parentCount);
+		for (int i = 0; i < parentCount; i++) {
+			buffer.putLong(span.getParentId(i));
+		}
+		int tagCount = span.getTagCount();
+		writeVarint(buffer, tagCount);
+		for (int i = 0; i < tagCount; i++) {
+			int keyId = span.getTagKeyId(i);
+			if (keyId == TagKey.UNREGISTERED_ID) {
+				writeRef(buffer, span.getTagKey(i), dictionary);
+			}
+			else {
+				writeKeyRef(buffer, keyId, dictionary);
+			}
+			writeString(buffer, span.getTagValue(i));
+		}
+		int logCount = span.getLogCount();
+		writeVarint(buffer, logCount);
+		for (int i = 0; i < logCount; i++) {
+			writeVarint(buffer, zigzag(span.getLogTimestampMicros(i) - begin));
+			writeRef(buffer, span.getLogEvent(i), dictionary);
+		}
+	}
+
+	private Span readSpan(ByteBuffer buffer, Span previous, List<String> dictionary) {
+		int flags = buffer.get();
+		long traceIdHigh = 0;
+		long traceId;
+		if ((flags & FLAG_SAME_TRACE) != 0) {
+			if (previous == null) {
+				throw new IllegalArgumentException("Same trace flag set on the first span");
+			}
+			traceIdHigh = previous.getTraceIdHigh();
+			traceId = previous.getTraceId();
+		}
+		else {
+			if ((flags & FLAG_TRACE_ID_HIGH) != 0) {
+				traceIdHigh = buffer.getLong();
+			}
+			traceId = buffer.getLong();
+		}
+		Span.SpanBuilder builder = Span.builder()
+				.remote((flags & FLAG_REMOTE) != 0)
+				.exportable((flags & FLAG_EXPORTABLE) != 0)
+				.traceIdHigh(traceIdHigh)
+				.traceId(traceId)
+				.spanId(buffer.getLong());
+		long begin = readVarint(buffer);
+		long end = readVarint(buffer);
+		builder.beginMicros(begin).endMicros(end == 0 ? 0 : begin + end - 1);
+		builder.name(readString(buffer)).processId(readString(buffer));
+		int parentCount = readLength(buffer);
+		for (int i = 0; i < parentCount; i++) {
+			builder.parent(buffer.getLong());
+		}
+		int tagCount = readLength(buffer);
+		for (int i = 0; i < tagCount; i++) {
+			builder.tag(readRef(buffer, dictionary), readString(buffer));
+		}
+		int logCount = readLength(buffer);
+		for (int i = 0; i < logCount; i++) {
+			long timestamp = begin + unzigzag(readVarint(buffer));
+			builder.log(Log.fromMicros(timestamp, readRef(buffer, dictionary)));
+		}
+		return builder.build();
+	}
+
+	private static void writeRef(ByteBuffer buffer, String value, Dictionary dictionary) {
+		int index = value == null ? -1 : dictionary.indexOf(value);
+		if (index >= 0) {
+			writeVarint(buffer, ((long) index << 1) | 1);
+			return;
+		}
+		writeStringTagged(buffer, value, 0);
+		if (value != null) {
+			dictionary.add(value);
+		}
+	}
+
+	/**
+	 * Same as {@link #writeRef} for a tag key, looked up by its {@link TagKey} id
+	 */
+	private static void writeKeyRef(ByteBuffer buffer, int keyId, Dictionary dictionary) {
+		int index = dictionary.indexOfKey(keyId);
+		if (index >= 0) {
+			writeVarint(buffer, ((long) index << 1) | 1);
+			return;
+		}
+		writeStringTagged(buffer, TagKey.forId(keyId).getName(), 0);
+		dictionary.addKey(keyId);
+	}
+
+	private static String readRef(ByteBuffer buffer, List<String> dictionary) {
+		long header = readVarint(buffer);
+		if ((header & 1) == 1) {
+			int index = (int) (header >>> 1);
+			if (index >= dictionary.size()) {
+				throw new IllegalArgumentException("Unknown dictionary index " + index);
+			}
+			return dictionary.get(index);
+		}
+		String value = readStringBody(buffer, header >>> 1);
+		if (value != null && dictionary.size() < MAX_DICTIONARY_ENTRIES) {
+			dictionary.add(value);
+		}
+		return value;
+	}
+
+	private static void writeString(ByteBuffer buffer, String value) {
+		if (value == null) {
+			writeVarint(buffer, 0);
+			return;
+		}
+		writeVarint(buffer, utf8Length(value) + 1);
+		writeUtf8(buffer, value);
+	}
+
+	private static void writeStringTagged(ByteBuffer buffer, String value, int tag) {
+		long length = value == null ? 0 : utf8Length(value) + 1;
+		writeVarint(buffer, (length << 1) | tag);
+		if (value != null) {
+			writeUtf8(buffer, value);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		return readStringBody(buffer, readVarint(buffer));
+	}
+
+	private static String readStringBody(ByteBuffer buffer, long lengthPlusOne) {
+		if (lengthPlusOne == 0) {
+			return null;
+		}
+		long length = lengthPlusOne - 1;
+		if (length > buffer.remaining()) {
+			throw new IllegalArgumentException("String length " + length
+					+ " exceeds the remaining " + buffer.remaining() + " bytes");
+		}
+		byte[] bytes = new byte[(int) length];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static int utf8Length(String value) {
+		int length = 0;
+		for (int i = 0, size = value.length(); i < size; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length++;
+			}
+			else if (c < 0x800) {
+				length += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < size
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Writes the chars as UTF-8 straight into the buffer. Unpaired surrogates are
+	 * written as U+FFFD, so the length matches {@link #utf8Length(String)}.
+	 */
+	private static void writeUtf8(ByteBuffer buffer, String value) {
+		for (int i = 0, size = value.length(); i < size; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			}
+			else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < size
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | (codePoint >> 18)));
+				buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+			}
+			else {
+				if (Character.isSurrogate(c)) {
+					buffer.put((byte) 0xEF);
+					buffer.put((byte) 0xBF);
+					buffer.put((byte) 0xBD);
+					continue;
+				}
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	static void writeVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long readVarint(ByteBuffer buffer) {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			result |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	private static int readLength(ByteBuffer buffer) {
+		long length = readVarint(buffer);
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid element count " + length);
+		}
+		return (int) length;
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Open addressing string to index table, reused between encode calls so that the
+	 * encode path does not allocate. Tag keys are indexed by their id instead, an entry
+	 * is valid only if it was added in the current generation.
+	 */
+	private static final class Dictionary {
+
+		private String[] keys = new String[64];
+		private int[] indexes = new int[64];
+		private int size;
+		private int[] keyIndexes = new int[64];
+		private int[] keyGenerations = new int[64];
+		private int generation = 1;
+
+		int indexOfKey(int keyId) {
+			return keyId < this.keyGenerations.length
+					&& this.keyGenerations[keyId] == this.generation
+					? this.keyIndexes[keyId] : -1;
+		}
+
+		void addKey(int keyId) {
+			if (this.size >= MAX_DICTIONARY_ENTRIES) {
+				return;
+			}
+			if (keyId >= this.keyGenerations.length) {
+				int capacity = Math.max(keyId + 1, this.keyGenerations.length * 2);
+				this.keyIndexes = Arrays.copyOf(this.keyIndexes, capacity);
+				this.keyGenerations = Arrays.copyOf(this.keyGenerations, capacity);
+			}
+			this.keyGenerations[keyId] = this.generation;
+			this.keyIndexes[keyId] = this.size++;
+		}
+
+		int indexOf(String value) {
+			int mask = this.keys.length - 1;
+			for (int slot = value.hashCode() & mask; ; slot = (slot + 1) & mask) {
+				String key = this.keys[slot];
+				if (key == null) {
+					return -1;
+				}
+				if (key == value || key.equals(value)) {
+					return this.indexes[slot];
+				}
+			}
+		}
+
+		void add(String value) {
+			if (this.size >= MAX_DICTIONARY_ENTRIES) {
+				// refs past the limit are simply written inline every time
+				return;
+			}
+			if ((this.size + 1) * 2 > this.keys.length) {
+				grow();
+			}
+			insert(value, this.size++);
+		}
+
+		private void insert(String value, int index) {
+			int mask = this.keys.length - 1;
+			int slot = value.hashCode() & mask;
+			while (this.keys[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			this.keys[slot] = value;
+			this.indexes[slot] = index;
+		}
+
+		private void grow() {
+			String[] oldKeys = this.keys;
+			int[] oldIndexes = this.indexes;
+			this.keys = new String[oldKeys.length * 2];
+			this.indexes = new int[oldKeys.length * 2];
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != null) {
+					insert(oldKeys[i], oldIndexes[i]);
+				}
+			}
+		}
+
+		void clear() {
+			if (this.size > 0) {
+				Arrays.fill(this.keys, null);
+				this.size = 0;
+			}
+			if (++this.generation == 0) {
+				Arrays.fill(this.keyGenerations, 0);
+				this.generation = 1;
+			}
+		}
+	}
+}
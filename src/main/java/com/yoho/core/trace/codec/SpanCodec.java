@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.codec;
+
+import java.nio.ByteBuffer;
+
+import com.yoho.core.trace.Span;
+
+/**
+ * Contract for turning a {@link Span} into bytes and back. Used wherever spans leave
+ * the heap, for example when they are spooled to disk.
+ *
+ * @since 1.0.6
+ */
+public interface SpanCodec {
+
+	/**
+	 * Writes the span starting at the buffer's current position and advances the
+	 * position past the written bytes.
+	 *
+	 * @throws java.nio.BufferOverflowException if the buffer does not have enough room
+	 * left, in which case the buffer's content past the initial position is undefined
+	 */
+	void encode(Span span, ByteBuffer buffer);
+
+	/**
+	 * Reads a single span starting at the buffer's current position and advances the
+	 * position past the read bytes.
+	 *
+	 * @throws IllegalArgumentException if the bytes don't represent a valid span
+	 */
+	Span decode(ByteBuffer buffer);
+}
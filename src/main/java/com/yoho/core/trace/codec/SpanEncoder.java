@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.yoho.core.trace.Span;
+
+/**
+ * Contract for writing a batch of spans in the wire format of a collector.
+ *
+ * @since 1.0.6
+ */
+public interface SpanEncoder {
+
+	/**
+	 * Writes the spans as a single message. The stream is flushed but not closed.
+	 */
+	void encode(List<Span> spans, OutputStream out) throws IOException;
+
+	/**
+	 * Media type of the produced message, e.g. {@code application/json}
+	 */
+	String getMediaType();
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.TagKey;
+import com.yoho.core.trace.util.HexCodec;
+
+/**
+ * {@link SpanEncoder} writing the
+ * <a href="https://zipkin.io/zipkin-api/#/default/post_spans">Zipkin v2 JSON</a>
+ * format straight to the output stream with a {@link JsonGenerator}, without building
+ * any intermediate maps or objects.
+ * <p>
+ * Span kind and timing are derived from the core annotations: {@code cs}/{@code cr}
+ * make a {@code CLIENT} span timed from client send to client receive,
+ * {@code sr}/{@code ss} a {@code SERVER} span timed from server receive to server
+ * send. Remote server spans share their id with the caller and are marked
+ * {@code shared}. Any other log becomes an annotation. Timestamps are written in the
+ * epoch micros of the span's clock.
+ *
+ * @since 1.0.6
+ */
+public class ZipkinJsonV2SpanEncoder implements SpanEncoder {
+
+	private static final String KIND_CLIENT = "CLIENT";
+	private static final String KIND_SERVER = "SERVER";
+
+	private final JsonFactory jsonFactory;
+	private final String serviceName;
+
+	/**
+	 * Tag key field names by {@link TagKey} id, escaped and encoded once. Updated
+	 * racily, a lost update only means a name is encoded again.
+	 */
+	private volatile SerializedString[] keyNames = new SerializedString[64];
+
+	/**
+	 * Uses the process id of each span as its service name
+	 */
+	public ZipkinJsonV2SpanEncoder() {
+		this(null);
+	}
+
+	/**
+	 * @param serviceName local service name of all spans, falls back to the process id
+	 * of the span if empty
+	 */
+	public ZipkinJsonV2SpanEncoder(String serviceName) {
+		this.jsonFactory = new JsonFactory();
+		this.jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		this.serviceName = serviceName == null || serviceName.isEmpty() ? null : serviceName;
+	}
+
+	@Override
+	public void encode(List<Span> spans, OutputStream out) throws IOException {
+		JsonGenerator generator = this.jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+		char[] hex = new char[32];
+		try {
+			generator.writeStartArray();
+			for (int i = 0, size = spans.size(); i < size; i++) {
+				writeSpan(generator, spans.get(i), hex);
+			}
+			generator.writeEndArray();
+		}
+		finally {
+			generator.close();
+		}
+	}
+
+	@Override
+	public String getMediaType() {
+		return "application/json";
+	}
+
+	private void writeSpan(JsonGenerator generator, Span span, char[] hex) throws IOException {
+		long clientSend = 0, clientRecv = 0, serverRecv = 0, serverSend = 0;
+		int annotations = 0;
+		int logCount = span.getLogCount();
+		for (int i = 0; i < logCount; i++) {
+			String event = span.getLogEvent(i);
+			if (Span.CLIENT_SEND.equals(event)) {
+				clientSend = span.getLogTimestampMicros(i);
+			}
+			else if (Span.CLIENT_RECV.equals(event)) {
+				clientRecv = span.getLogTimestampMicros(i);
+			}
+			else if (Span.SERVER_RECV.equals(event)) {
+				serverRecv = span.getLogTimestampMicros(i);
+			}
+			else if (Span.SERVER_SEND.equals(event)) {
+				serverSend = span.getLogTimestampMicros(i);
+			}
+			else {
+				annotations++;
+			}
+		}
+		String kind = null;
+		long start = span.getBeginMicros();
+		long finish = span.getEndMicros();
+		if (clientSend != 0 || clientRecv != 0) {
+			kind = KIND_CLIENT;
+			start = clientSend != 0 ? clientSend : start;
+			finish = clientRecv != 0 ? clientRecv : finish;
+		}
+		else if (serverRecv != 0 || serverSend != 0) {
+			kind = KIND_SERVER;
+			start = serverRecv != 0 ? serverRecv : start;
+			finish = serverSend != 0 ? serverSend : finish;
+		}
+
+		generator.writeStartObject();
+		if (span.getTraceIdHigh() != 0) {
+			writeTraceId128(generator, span.getTraceIdHigh(), span.getTraceId(), hex);
+		}
+		else {
+			writeId(generator, "traceId", span.getTraceId(), hex);
+		}
+		if (span.getParentCount() > 0) {
+			writeId(generator, "parentId", span.getParentId(0), hex);
+		}
+		writeId(generator, "id", span.getSpanId(), hex);
+		if (kind != null) {
+			generator.writeStringField("kind", kind);
+		}
+		if (span.getName() != null && !span.getName().isEmpty()) {
+			generator.writeStringField("name", span.getName());
+		}
+		if (start > 0) {
+			generator.writeNumberField("timestamp", start);
+			if (finish > 0) {
+				// zipkin treats a missing duration as unfinished - round up to 1 micro
+				generator.writeNumberField("duration", Math.max(1, finish - start));
+			}
+		}
+		String localService = this.serviceName != null ? this.serviceName : span.getProcessId();
+		if (localService != null && !localService.isEmpty()) {
+			generator.writeObjectFieldStart("localEndpoint");
+			generator.writeStringField("serviceName", localService);
+			generator.writeEndObject();
+		}
+		if (annotations > 0) {
+			generator.writeArrayFieldStart("annotations");
+			for (int i = 0; i < logCount; i++) {
+				String event = span.getLogEvent(i);
+				if (isCoreAnnotation(event)) {
+					continue;
+				}
+				generator.writeStartObject();
+				generator.writeNumberField("timestamp", span.getLogTimestampMicros(i));
+				generator.writeStringField("value", event);
+				generator.writeEndObject();
+			}
+			generator.writeEndArray();
+		}
+		int tagCount = span.getTagCount();
+		if (tagCount > 0) {
+			generator.writeObjectFieldStart("tags");
+			for (int i = 0; i < tagCount; i++) {
+				int keyId = span.getTagKeyId(i);
+				if (keyId == TagKey.UNREGISTERED_ID) {
+					generator.writeFieldName(span.getTagKey(i));
+				}
+				else {
+					generator.writeFieldName(keyName(keyId));
+				}
+				generator.writeString(span.getTagValue(i));
+			}
+			generator.writeEndObject();
+		}
+		if (span.isRemote() && KIND_SERVER.equals(kind)) {
+			generator.writeBooleanField("shared", true);
+		}
+		generator.writeEndObject();
+	}
+
+	private static boolean isCoreAnnotation(String event) {
+		return Span.CLIENT_SEND.equals(event) || Span.CLIENT_RECV.equals(event)
+				|| Span.SERVER_RECV.equals(event) || Span.SERVER_SEND.equals(event);
+	}
+
+	private SerializedString keyName(int keyId) {
+		SerializedString[] keyNames = this.keyNames;
+		SerializedString keyName = keyId < keyNames.length ? keyNames[keyId] : null;
+		if (keyName == null) {
+			keyName = new SerializedString(TagKey.forId(keyId).getName());
+			if (keyId >= keyNames.length) {
+				keyNames = Arrays.copyOf(keyNames, Math.max(keyId + 1, keyNames.length * 2));
+			}
+			keyNames[keyId] = keyName;
+			this.keyNames = keyNames;
+		}
+		return keyName;
+	}
+
+	/**
+	 * Writes a 128-bit trace id as 32 lower-case hex chars
+	 */
+	private static void writeTraceId128(JsonGenerator generator, long high, long low,
+			char[] hex) throws IOException {
+		HexCodec.writeHex(low, hex, HexCodec.writeHex(high, hex, 0));
+		generator.writeFieldName("traceId");
+		generator.writeString(hex, 0, 32);
+	}
+
+	/**
+	 * Writes the id as 16 lower-case hex chars, zipkin rejects ids of other lengths
+	 */
+	private static void writeId(JsonGenerator generator, String field, long id, char[] hex)
+			throws IOException {
+		HexCodec.writeHex(id, hex, 0);
+		generator.writeFieldName(field);
+		generator.writeString(hex, 0, 16);
+	}
+}
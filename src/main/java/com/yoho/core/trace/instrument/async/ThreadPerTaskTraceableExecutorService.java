@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.instrument.async;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.yoho.core.trace.SpanNamer;
+import com.yoho.core.trace.TraceKeys;
+import com.yoho.core.trace.Tracer;
+
+/**
+ * A {@link TraceableExecutorService} for executors that start a new thread per task,
+ * like the virtual thread per task executor of newer JDKs.
+ * <p>
+ * With a thread per task there is no pooled thread whose work would need a span of its
+ * own, and the name of a fresh thread says nothing. Tasks therefore don't get a local
+ * component span: the span current on submit is made current in the task without being
+ * copied, so spans the task creates are its children. Tasks submitted while not tracing
+ * are passed on as they are. The span stack of the task thread is only created once the
+ * task puts a span in context.
+ * <p>
+ * For the same reason the tasks of {@code invokeAll} and {@code invokeAny} are not
+ * grouped under a span of the call as {@link TraceableExecutorService} does: they
+ * continue the span current on the call like any other task, and as nothing queues
+ * them there is no queue wait, run time or slowest task to tag.
+ *
+ * @since 1.0.6
+ */
+public class ThreadPerTaskTraceableExecutorService extends TraceableExecutorService {
+
+	public ThreadPerTaskTraceableExecutorService(ExecutorService delegate, Tracer tracer,
+			TraceKeys traceKeys, SpanNamer spanNamer) {
+		super(delegate, tracer, traceKeys, spanNamer);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		this.delegate.execute(wrap(command));
+	}
+
+	@Override
+	public <T> Future<T> submit(Callable<T> task) {
+		return this.delegate.submit(wrap(task));
+	}
+
+	@Override
+	public <T> Future<T> submit(Runnable task, T result) {
+		return this.delegate.submit(wrap(task), result);
+	}
+
+	@Override
+	public Future<?> submit(Runnable task) {
+		return this.delegate.submit(wrap(task));
+	}
+
+	@Override
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks)
+			throws InterruptedException {
+		return this.delegate.invokeAll(wrapAll(tasks));
+	}
+
+	@Override
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks,
+			long timeout, TimeUnit unit) throws InterruptedException {
+		return this.delegate.invokeAll(wrapAll(tasks), timeout, unit);
+	}
+
+	@Override
+	public <T> T invokeAny(Collection<? extends Callable<T>> tasks)
+			throws InterruptedException, ExecutionException {
+		return this.delegate.invokeAny(wrapAll(tasks));
+	}
+
+	@Override
+	public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout,
+			TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		return this.delegate.invokeAny(wrapAll(tasks), timeout, unit);
+	}
+
+	private Runnable wrap(Runnable task) {
+		if (!this.tracer.isTracing()) {
+			return task;
+		}
+		return new TraceContinuingRunnable(this.tracer, this.spanNamer, task);
+	}
+
+	private <T> Callable<T> wrap(Callable<T> task) {
+		if (!this.tracer.isTracing()) {
+			return task;
+		}
+		return new TraceContinuingCallable<>(this.tracer, this.spanNamer, task);
+	}
+
+	private <T> Collection<? extends Callable<T>> wrapAll(
+			Collection<? extends Callable<T>> tasks) {
+		if (!this.tracer.isTracing()) {
+			return tasks;
+		}
+		List<Callable<T>> wrapped = new ArrayList<>(tasks.size());
+		for (Callable<T> task : tasks) {
+			wrapped.add(new TraceContinuingCallable<>(this.tracer, this.spanNamer, task));
+		}
+		return wrapped;
+	}
+}
@@ -16,6 +16,7 @@
 
 package com.yoho.core.trace.instrument.async;
 
+import com.yoho.core.trace.TagKey;
 import com.yoho.core.trace.TraceKeys;
 import com.yoho.core.trace.Tracer;
 import org.aspectj.lang.ProceedingJoinPoint;
@@ -38,21 +39,23 @@ public class TraceAsyncAspect {
 	private static final String ASYNC_COMPONENT = "async";
 
 	private final Tracer tracer;
-	private final TraceKeys traceKeys;
+	private final TagKey classNameKey;
+	private final TagKey methodNameKey;
 
 	public TraceAsyncAspect(Tracer tracer, TraceKeys traceKeys) {
 		this.tracer = tracer;
-		this.traceKeys = traceKeys;
+		this.classNameKey = TagKey.of(traceKeys.getAsync().getPrefix()
+				+ traceKeys.getAsync().getClassNameKey());
+		this.methodNameKey = TagKey.of(traceKeys.getAsync().getPrefix()
+				+ traceKeys.getAsync().getMethodNameKey());
 	}
 
 	@Around("execution (@org.springframework.scheduling.annotation.Async  * *.*(..))")
 	public Object traceBackgroundThread(final ProceedingJoinPoint pjp) throws Throwable {
 		Span span = this.tracer.createSpan(pjp.getSignature().getName());
-		this.tracer.addTag(Span.SPAN_LOCAL_COMPONENT_TAG_NAME, ASYNC_COMPONENT);
-		this.tracer.addTag(this.traceKeys.getAsync().getPrefix() +
-				this.traceKeys.getAsync().getClassNameKey(), pjp.getTarget().getClass().getSimpleName());
-		this.tracer.addTag(this.traceKeys.getAsync().getPrefix() +
-				this.traceKeys.getAsync().getMethodNameKey(), pjp.getSignature().getName());
+		this.tracer.addTag(TagKey.LOCAL_COMPONENT, ASYNC_COMPONENT);
+		this.tracer.addTag(this.classNameKey, pjp.getTarget().getClass().getSimpleName());
+		this.tracer.addTag(this.methodNameKey, pjp.getSignature().getName());
 		try {
 			return pjp.proceed();
 		} finally {
@@ -19,13 +19,15 @@ package com.yoho.core.trace.instrument.async;
 import java.util.concurrent.Callable;
 
 import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanInScope;
 import com.yoho.core.trace.SpanNamer;
 import com.yoho.core.trace.TraceCallable;
 import com.yoho.core.trace.Tracer;
 
 /**
- * Trace Callable that continues a span instead of creating a new one. Upon completion
- * the span is not closed - it gets {@link Tracer#detach(Span) detached}.
+ * Trace Callable that continues a span instead of creating a new one. The span is
+ * made current {@link Tracer#withSpanInScope(Span) in scope} without being copied and
+ * is not closed upon completion - the span that was current before is restored.
  *
  * @author Marcin Grzejszczak
  */
@@ -36,12 +38,13 @@ public class TraceContinuingCallable<V> extends TraceCallable<V> implements Call
 	}
 
 	@Override
-	protected Span startSpan() {
-		return getTracer().continueSpan(getParent());
-	}
-
-	@Override
-	protected void close(Span span) {
-		getTracer().detach(span);
+	public V call() throws Exception {
+		SpanInScope scope = getTracer().withSpanInScope(getParent());
+		try {
+			return getDelegate().call();
+		}
+		finally {
+			scope.close();
+		}
 	}
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.instrument.async;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanInScope;
+import com.yoho.core.trace.SpanNamer;
+import com.yoho.core.trace.TraceRunnable;
+import com.yoho.core.trace.Tracer;
+
+/**
+ * Trace Runnable that continues the span current at construction instead of creating
+ * a new one. The span is made current {@link Tracer#withSpanInScope(Span) in scope}
+ * without being copied and is not closed upon completion.
+ *
+ * @since 1.0.6
+ */
+public class TraceContinuingRunnable extends TraceRunnable {
+
+	public TraceContinuingRunnable(Tracer tracer, SpanNamer spanNamer, Runnable delegate) {
+		super(tracer, spanNamer, delegate);
+	}
+
+	@Override
+	public void run() {
+		SpanInScope scope = getTracer().withSpanInScope(getParent());
+		try {
+			getDelegate().run();
+		}
+		finally {
+			scope.close();
+		}
+	}
+}
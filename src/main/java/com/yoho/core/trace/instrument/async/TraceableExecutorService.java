@@ -15,6 +15,7 @@
  */
 package com.yoho.core.trace.instrument.async;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -24,22 +25,37 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import com.yoho.core.trace.Span;
 import com.yoho.core.trace.SpanNamer;
+import com.yoho.core.trace.TagKey;
 import com.yoho.core.trace.TraceKeys;
 import com.yoho.core.trace.Tracer;
 
 /**
  * A decorator class for {@link ExecutorService} to support tracing in Executors
+ * <p>
+ * While tracing, the tasks of {@code invokeAll} and {@code invokeAny} are grouped under a
+ * span covering the whole call. Each task span is tagged with the time the task waited
+ * in the queue and the time it ran, the grouping span with the id of the slowest task.
+ * Batches submitted while not tracing are passed on as they are.
  *
  * @author Gaurav Rai Mazra
  * @since 1.0.0
  */
 public class TraceableExecutorService implements ExecutorService {
+	private static final String ASYNC_COMPONENT = "async";
+	private static final String INVOKE_ALL_SPAN_NAME = "invokeAll";
+	private static final String INVOKE_ANY_SPAN_NAME = "invokeAny";
+
 	final ExecutorService delegate;
 	final Tracer tracer;
 	private final String spanName;
 	final TraceKeys traceKeys;
 	final SpanNamer spanNamer;
+	private final TagKey threadNameKey;
+	private final TagKey queueWaitKey;
+	private final TagKey runTimeKey;
+	private final TagKey slowestTaskKey;
 
 	public TraceableExecutorService(final ExecutorService delegate, final Tracer tracer,
 			TraceKeys traceKeys, SpanNamer spanNamer) {
@@ -53,6 +69,11 @@ public class TraceableExecutorService implements ExecutorService {
 		this.spanName = spanName;
 		this.traceKeys = traceKeys;
 		this.spanNamer = spanNamer;
+		TraceKeys.Async async = traceKeys.getAsync();
+		this.threadNameKey = TagKey.of(async.getPrefix() + async.getThreadNameKey());
+		this.queueWaitKey = TagKey.of(async.getPrefix() + async.getQueueWaitKey());
+		this.runTimeKey = TagKey.of(async.getPrefix() + async.getRunTimeKey());
+		this.slowestTaskKey = TagKey.of(async.getPrefix() + async.getSlowestTaskKey());
 	}
 
 	@Override
@@ -110,24 +131,150 @@ public class TraceableExecutorService implements ExecutorService {
 
 	@Override
 	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
-		return this.delegate.invokeAll(tasks);
+		if (!this.tracer.isTracing()) {
+			return this.delegate.invokeAll(tasks);
+		}
+		Batch batch = new Batch(INVOKE_ALL_SPAN_NAME);
+		try {
+			return this.delegate.invokeAll(batch.wrap(tasks));
+		}
+		finally {
+			batch.close();
+		}
 	}
 
 	@Override
 	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
 			throws InterruptedException {
-		return this.delegate.invokeAll(tasks, timeout, unit);
+		if (!this.tracer.isTracing()) {
+			return this.delegate.invokeAll(tasks, timeout, unit);
+		}
+		Batch batch = new Batch(INVOKE_ALL_SPAN_NAME);
+		try {
+			return this.delegate.invokeAll(batch.wrap(tasks), timeout, unit);
+		}
+		finally {
+			batch.close();
+		}
 	}
 
 	@Override
 	public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
-		return this.delegate.invokeAny(tasks);
+		if (!this.tracer.isTracing()) {
+			return this.delegate.invokeAny(tasks);
+		}
+		Batch batch = new Batch(INVOKE_ANY_SPAN_NAME);
+		try {
+			return this.delegate.invokeAny(batch.wrap(tasks));
+		}
+		finally {
+			batch.close();
+		}
 	}
 
 	@Override
 	public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
 			throws InterruptedException, ExecutionException, TimeoutException {
-		return this.delegate.invokeAny(tasks, timeout, unit);
+		if (!this.tracer.isTracing()) {
+			return this.delegate.invokeAny(tasks, timeout, unit);
+		}
+		Batch batch = new Batch(INVOKE_ANY_SPAN_NAME);
+		try {
+			return this.delegate.invokeAny(batch.wrap(tasks), timeout, unit);
+		}
+		finally {
+			batch.close();
+		}
+	}
+
+	private static String micros(long nanos) {
+		return String.valueOf(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	/**
+	 * Tasks handed over together, children of one grouping span made current on the
+	 * calling thread until the batch is closed
+	 */
+	private final class Batch {
+
+		private final Span span;
+
+		private long submitted;
+
+		/** Nanos from submission until completion of the slowest task so far */
+		private long slowestNanos = -1;
+
+		private Span slowestTask;
+
+		Batch(String name) {
+			this.span = TraceableExecutorService.this.tracer.createSpan(name);
+			TraceableExecutorService.this.tracer.addTag(TagKey.LOCAL_COMPONENT,
+					ASYNC_COMPONENT);
+		}
+
+		<T> List<Callable<T>> wrap(Collection<? extends Callable<T>> tasks) {
+			List<Callable<T>> wrapped = new ArrayList<>(tasks.size());
+			for (Callable<T> task : tasks) {
+				wrapped.add(new BatchCallable<>(this, task));
+			}
+			this.submitted = System.nanoTime();
+			return wrapped;
+		}
+
+		synchronized void completed(Span task, long nanos) {
+			if (nanos > this.slowestNanos) {
+				this.slowestNanos = nanos;
+				this.slowestTask = task;
+			}
+		}
+
+		void close() {
+			Span slowestTask;
+			synchronized (this) {
+				slowestTask = this.slowestTask;
+			}
+			if (slowestTask != null) {
+				this.span.tag(TraceableExecutorService.this.slowestTaskKey,
+						slowestTask.spanIdString());
+			}
+			TraceableExecutorService.this.tracer.close(this.span);
+		}
+	}
+
+	/**
+	 * A task of a batch, starts a local component span child of the grouping span
+	 */
+	private final class BatchCallable<V> implements Callable<V> {
+
+		private final Batch batch;
+
+		private final Callable<V> delegate;
+
+		BatchCallable(Batch batch, Callable<V> delegate) {
+			this.batch = batch;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public V call() throws Exception {
+			long started = System.nanoTime();
+			TraceableExecutorService service = TraceableExecutorService.this;
+			Tracer tracer = service.tracer;
+			Span span = tracer.createSpan(service.spanName != null ? service.spanName
+					: service.spanNamer.name(this.delegate, ASYNC_COMPONENT), this.batch.span);
+			tracer.addTag(TagKey.LOCAL_COMPONENT, ASYNC_COMPONENT);
+			tracer.addTag(service.threadNameKey, Thread.currentThread().getName());
+			tracer.addTag(service.queueWaitKey, micros(started - this.batch.submitted));
+			try {
+				return this.delegate.call();
+			}
+			finally {
+				long completed = System.nanoTime();
+				tracer.addTag(service.runTimeKey, micros(completed - started));
+				this.batch.completed(span, completed - this.batch.submitted);
+				tracer.close(span);
+			}
+		}
 	}
 
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.instrument.async;
+
+import java.util.concurrent.Executor;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanNamer;
+import com.yoho.core.trace.TraceKeys;
+import com.yoho.core.trace.Tracer;
+
+/**
+ * {@link Executor} decorator for the async stages of a
+ * {@link java.util.concurrent.CompletableFuture}, passing the span on from stage to stage:
+ * <pre>{@code
+ *     Executor executor = new TraceableStageExecutor(tracer, traceKeys, spanNamer, pool);
+ *     CompletableFuture.supplyAsync(supplier, executor)
+ *             .thenApplyAsync(function, executor)
+ *             .thenComposeAsync(compose, executor);
+ * }</pre>
+ * The span is captured once per stage, when the stage is handed to the executor: on the
+ * calling thread for the first stage, on the thread completing the previous stage for
+ * the ones depending on it. As that stage ran with its span in context, the trace
+ * carries on along the chain even if the stages run on an executor of their own. Stages
+ * handed over while not tracing run as they are.
+ * <p>
+ * Without stage spans, the default, the captured span is only made current while the
+ * stage runs. With stage spans every stage gets a local component span of its own to
+ * time it, child of the span the chain started from: a stage handed over while an earlier
+ * stage span is current takes the parent of that span instead of nesting under it, so the
+ * stage spans of a chain are siblings whichever thread happens to complete them.
+ *
+ * @since 1.0.6
+ */
+public class TraceableStageExecutor implements Executor {
+
+	private static final String DEFAULT_SPAN_NAME = "async";
+
+	/**
+	 * Stage running on this thread, shared by all the executors as one chain may use many
+	 */
+	private static final ThreadLocal<StageRunnable> RUNNING_STAGE = new ThreadLocal<>();
+
+	private final Tracer tracer;
+	private final TraceKeys traceKeys;
+	private final SpanNamer spanNamer;
+	private final Executor delegate;
+	private final boolean stageSpans;
+	private final String spanName;
+
+	/**
+	 * Propagates the span without creating spans for the stages
+	 */
+	public TraceableStageExecutor(Tracer tracer, TraceKeys traceKeys,
+			SpanNamer spanNamer, Executor delegate) {
+		this(tracer, traceKeys, spanNamer, delegate, false, null);
+	}
+
+	/**
+	 * @param stageSpans whether each stage gets a span of its own
+	 * @param spanName name of the stage spans, {@code async} if {@code null}
+	 */
+	public TraceableStageExecutor(Tracer tracer, TraceKeys traceKeys,
+			SpanNamer spanNamer, Executor delegate, boolean stageSpans, String spanName) {
+		this.tracer = tracer;
+		this.traceKeys = traceKeys;
+		this.spanNamer = spanNamer;
+		this.delegate = delegate;
+		this.stageSpans = stageSpans;
+		// stages are internal tasks of the future, naming them each time gives no better name
+		this.spanName = spanName != null ? spanName : DEFAULT_SPAN_NAME;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (!this.tracer.isTracing()) {
+			this.delegate.execute(command);
+		}
+		else if (this.stageSpans) {
+			this.delegate.execute(new StageRunnable(this.tracer, this.traceKeys,
+					this.spanNamer, command, this.spanName, origin()));
+		}
+		else {
+			this.delegate.execute(
+					new TraceContinuingRunnable(this.tracer, this.spanNamer, command));
+		}
+	}
+
+	/**
+	 * The span the chain of the stage being handed over started from
+	 */
+	private Span origin() {
+		Span current = this.tracer.getCurrentSpan();
+		StageRunnable running = RUNNING_STAGE.get();
+		if (running != null && current != null && current.equals(running.span)) {
+			return running.getParent();
+		}
+		return current;
+	}
+
+	private static final class StageRunnable extends LocalComponentTraceRunnable {
+
+		private final Span origin;
+		private Span span;
+
+		StageRunnable(Tracer tracer, TraceKeys traceKeys, SpanNamer spanNamer,
+				Runnable delegate, String name, Span origin) {
+			super(tracer, traceKeys, spanNamer, delegate, name);
+			this.origin = origin;
+		}
+
+		@Override
+		public void run() {
+			StageRunnable outer = RUNNING_STAGE.get();
+			RUNNING_STAGE.set(this);
+			try {
+				super.run();
+			}
+			finally {
+				if (outer == null) {
+					RUNNING_STAGE.remove();
+				}
+				else {
+					RUNNING_STAGE.set(outer);
+				}
+			}
+		}
+
+		@Override
+		protected Span startSpan() {
+			this.span = super.startSpan();
+			return this.span;
+		}
+
+		@Override
+		public Span getParent() {
+			return this.origin;
+		}
+	}
+}
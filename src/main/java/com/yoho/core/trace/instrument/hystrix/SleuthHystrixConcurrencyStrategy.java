@@ -19,6 +19,7 @@ package com.yoho.core.trace.instrument.hystrix;
 import java.util.concurrent.Callable;
 
 import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanInScope;
 import com.yoho.core.trace.TraceKeys;
 import com.yoho.core.trace.Tracer;
 import org.apache.commons.logging.Log;
@@ -112,28 +113,24 @@ public class SleuthHystrixConcurrencyStrategy extends HystrixConcurrencyStrategy
 
 		@Override
 		public S call() throws Exception {
-			Span span = this.parent;
-			boolean created = false;
-			if (span != null) {
-				span = this.tracer.continueSpan(span);
-			}
-			else {
-				span = this.tracer.createSpan(HYSTRIX_COMPONENT);
-				this.tracer.addTag(Span.SPAN_LOCAL_COMPONENT_TAG_NAME, HYSTRIX_COMPONENT);
-				this.tracer.addTag(this.traceKeys.getAsync().getPrefix() +
-						this.traceKeys.getAsync().getThreadNameKey(), Thread.currentThread().getName());
-				created = true;
+			if (this.parent != null) {
+				SpanInScope scope = this.tracer.withSpanInScope(this.parent);
+				try {
+					return this.callable.call();
+				}
+				finally {
+					scope.close();
+				}
 			}
+			Span span = this.tracer.createSpan(HYSTRIX_COMPONENT);
+			this.tracer.addTag(Span.SPAN_LOCAL_COMPONENT_TAG_NAME, HYSTRIX_COMPONENT);
+			this.tracer.addTag(this.traceKeys.getAsync().getPrefix() +
+					this.traceKeys.getAsync().getThreadNameKey(), Thread.currentThread().getName());
 			try {
 				return this.callable.call();
 			}
 			finally {
-				if (created) {
-					this.tracer.close(span);
-				}
-				else {
-					this.tracer.detach(span);
-				}
+				this.tracer.close(span);
 			}
 		}
 
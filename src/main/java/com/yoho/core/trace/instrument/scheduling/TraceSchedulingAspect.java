@@ -17,6 +17,7 @@
 package com.yoho.core.trace.instrument.scheduling;
 
 import com.yoho.core.trace.Span;
+import com.yoho.core.trace.TagKey;
 import com.yoho.core.trace.TraceKeys;
 import com.yoho.core.trace.Tracer;
 import org.aspectj.lang.ProceedingJoinPoint;
@@ -44,22 +45,24 @@ public class TraceSchedulingAspect {
 	private static final String SCHEDULED_COMPONENT = "scheduled";
 
 	private final Tracer tracer;
-	private final TraceKeys traceKeys;
+	private final TagKey classNameKey;
+	private final TagKey methodNameKey;
 
 	public TraceSchedulingAspect(Tracer tracer, TraceKeys traceKeys) {
 		this.tracer = tracer;
-		this.traceKeys = traceKeys;
+		this.classNameKey = TagKey.of(traceKeys.getAsync().getPrefix()
+				+ traceKeys.getAsync().getClassNameKey());
+		this.methodNameKey = TagKey.of(traceKeys.getAsync().getPrefix()
+				+ traceKeys.getAsync().getMethodNameKey());
 	}
 
 	@Around("execution (@org.springframework.scheduling.annotation.Scheduled  * *.*(..))")
 	public Object traceBackgroundThread(final ProceedingJoinPoint pjp) throws Throwable {
 		String spanName = pjp.getSignature().getName();
 		Span span = this.tracer.createSpan(spanName);
-		this.tracer.addTag(Span.SPAN_LOCAL_COMPONENT_TAG_NAME, SCHEDULED_COMPONENT);
-		this.tracer.addTag(this.traceKeys.getAsync().getPrefix() +
-				this.traceKeys.getAsync().getClassNameKey(), pjp.getTarget().getClass().getSimpleName());
-		this.tracer.addTag(this.traceKeys.getAsync().getPrefix() +
-				this.traceKeys.getAsync().getMethodNameKey(), pjp.getSignature().getName());
+		this.tracer.addTag(TagKey.LOCAL_COMPONENT, SCHEDULED_COMPONENT);
+		this.tracer.addTag(this.classNameKey, pjp.getTarget().getClass().getSimpleName());
+		this.tracer.addTag(this.methodNameKey, pjp.getSignature().getName());
 		try {
 			return pjp.proceed();
 		}
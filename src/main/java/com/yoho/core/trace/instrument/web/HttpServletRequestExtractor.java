@@ -16,11 +16,11 @@
 
 package com.yoho.core.trace.instrument.web;
 
-import java.util.Random;
 import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
+import com.yoho.core.trace.IdGenerator;
 import com.yoho.core.trace.Span;
 import com.yoho.core.trace.SpanExtractor;
 import org.springframework.util.StringUtils;
@@ -37,13 +37,13 @@ class HttpServletRequestExtractor implements SpanExtractor<HttpServletRequest> {
 
 	private static final String HTTP_COMPONENT = "http";
 
-	private final Random random;
+	private final IdGenerator idGenerator;
 	private final Pattern skipPattern;
 
 	private UrlPathHelper urlPathHelper = new UrlPathHelper();
 
-	public HttpServletRequestExtractor(Random random) {
-		this.random = random;
+	public HttpServletRequestExtractor(IdGenerator idGenerator) {
+		this.idGenerator = idGenerator;
 		this.skipPattern = Pattern.compile(TraceInterceptor.DEFAULT_SKIP_PATTERN);
 	}
 
@@ -56,17 +56,19 @@ class HttpServletRequestExtractor implements SpanExtractor<HttpServletRequest> {
 		String uri = this.urlPathHelper.getPathWithinApplication(carrier);
 		boolean skip = this.skipPattern.matcher(uri).matches()
 				|| Span.SPAN_NOT_SAMPLED.equals(carrier.getHeader(Span.SAMPLED_NAME));
-		long traceId = Span
-				.hexToId(carrier.getHeader(Span.TRACE_ID_NAME));
+		String traceIdHex = carrier.getHeader(Span.TRACE_ID_NAME);
+		long traceIdHigh = Span.hexToTraceIdHigh(traceIdHex);
+		long traceId = Span.hexToId(traceIdHex);
 		long spanId = carrier.getHeader(Span.SPAN_ID_NAME) != null
 				? Span.hexToId(carrier.getHeader(Span.SPAN_ID_NAME))
-				: this.random.nextLong();
-		return buildParentSpan(carrier, uri, skip, traceId, spanId);
+				: this.idGenerator.nextId();
+		return buildParentSpan(carrier, uri, skip, traceIdHigh, traceId, spanId);
 	}
 
 	private Span buildParentSpan(HttpServletRequest carrier, String uri, boolean skip,
-								 long traceId, long spanId) {
-		Span.SpanBuilder span = Span.builder().traceId(traceId).spanId(spanId);
+								 long traceIdHigh, long traceId, long spanId) {
+		Span.SpanBuilder span = Span.builder().traceIdHigh(traceIdHigh).traceId(traceId)
+				.spanId(spanId);
 		String processId = carrier.getHeader(Span.PROCESS_ID_NAME);
 		String parentName = carrier.getHeader(Span.SPAN_NAME_NAME);
 		if (StringUtils.hasText(parentName)) {
@@ -37,8 +37,8 @@ class HttpServletResponseInjector implements SpanInjector<HttpServletResponse> {
 			return;
 		}
 		if (!carrier.containsHeader(Span.SPAN_ID_NAME)) {
-			carrier.addHeader(Span.SPAN_ID_NAME, Span.idToHex(span.getSpanId()));
-			carrier.addHeader(Span.TRACE_ID_NAME, Span.idToHex(span.getTraceId()));
+			carrier.addHeader(Span.SPAN_ID_NAME, span.spanIdString());
+			carrier.addHeader(Span.TRACE_ID_NAME, span.traceIdString());
 		}
 	}
 
@@ -62,6 +62,8 @@ public class TraceInterceptor implements HandlerInterceptor {
             "/api-docs.*|/autoconfig|/configprops|/dump|/health|/info|/metrics.*|/mappings|/trace|/swagger.*|.*\\.png|.*\\.css|.*\\.js|.*\\.html|/favicon.ico|/hystrix.stream";
     protected static final String TRACE_REQUEST_ATTR = TraceInterceptor.class.getName()
             + ".TRACE";
+    private static final String TRACE_SCOPE_ATTR = TraceInterceptor.class.getName()
+            + ".SCOPE";
     private final static Logger log = LoggerFactory.getLogger(TraceInterceptor.class);
     private static final String HTTP_COMPONENT = "http";
     private final Tracer tracer;
@@ -70,6 +72,12 @@ public class TraceInterceptor implements HandlerInterceptor {
     private final SpanReporter spanReporter;
     private final SpanExtractor<HttpServletRequest> spanExtractor;
     private final SpanInjector<HttpServletResponse> spanInjector;
+    private final TagKey uidKey;
+    private final TagKey urlKey;
+    private final TagKey hostKey;
+    private final TagKey pathKey;
+    private final TagKey methodKey;
+    private final TagKey statusCodeKey;
 
     private UrlPathHelper urlPathHelper = new UrlPathHelper();
 
@@ -88,6 +96,13 @@ public class TraceInterceptor implements HandlerInterceptor {
         this.spanReporter = spanReporter;
         this.spanExtractor = spanExtractor;
         this.spanInjector = spanInjector;
+        TagKey.registerAll(traceKeys);
+        this.uidKey = TagKey.of(traceKeys.getYoho().getUid());
+        this.urlKey = TagKey.of(traceKeys.getHttp().getUrl());
+        this.hostKey = TagKey.of(traceKeys.getHttp().getHost());
+        this.pathKey = TagKey.of(traceKeys.getHttp().getPath());
+        this.methodKey = TagKey.of(traceKeys.getHttp().getMethod());
+        this.statusCodeKey = TagKey.of(traceKeys.getHttp().getStatusCode());
     }
 
     @Override
@@ -99,21 +114,23 @@ public class TraceInterceptor implements HandlerInterceptor {
                     || Span.SPAN_NOT_SAMPLED.equals(ServletUtils.getHeader(request, response, Span.SAMPLED_NAME));
             Span spanFromRequest = (Span) request.getAttribute(TRACE_REQUEST_ATTR);
             if (spanFromRequest != null) {
-                this.tracer.continueSpan(spanFromRequest);
+                // async dispatch: make the span current again, closed in afterCompletion
+                request.setAttribute(TRACE_SCOPE_ATTR, this.tracer.withSpanInScope(spanFromRequest));
             }
             addToResponseIfNotPresent(response, Span.SAMPLED_NAME, skip ? Span.SPAN_NOT_SAMPLED : Span.SPAN_SAMPLED);
             String name = HTTP_COMPONENT + ":" + uri;
             spanFromRequest = createSpan(request, skip, spanFromRequest, name);
 
+            //------ add span to request ----
+            // right away, so afterCompletion closes the span even if tagging fails
+            request.setAttribute("SPAN-FROM-REQUEST", spanFromRequest);
+            request.setAttribute("SPAN-SKIP", skip);
+
             addRequestTags(request);
             // Add headers before filter chain in case one of the filters flushes the
             // response...
             this.spanInjector.inject(spanFromRequest, response);
 
-            //------ add span to request ----
-            request.setAttribute("SPAN-FROM-REQUEST", spanFromRequest);
-            request.setAttribute("SPAN-SKIP", skip);
-
         } catch (Exception e) {
             log.error("exception happened.", e);
         }
@@ -131,8 +148,22 @@ public class TraceInterceptor implements HandlerInterceptor {
 
         //------get something from request-----
         Span spanFromRequest = (Span) request.getAttribute("SPAN-FROM-REQUEST");
-        boolean skip = (Boolean) request.getAttribute("SPAN-SKIP");
+        boolean skip = Boolean.TRUE.equals(request.getAttribute("SPAN-SKIP"));
+
+        try {
+            completeSpan(request, response, spanFromRequest, skip, ex);
+        }
+        finally {
+            SpanInScope scope = (SpanInScope) request.getAttribute(TRACE_SCOPE_ATTR);
+            if (scope != null) {
+                request.removeAttribute(TRACE_SCOPE_ATTR);
+                scope.close();
+            }
+        }
+    }
 
+    private void completeSpan(HttpServletRequest request, HttpServletResponse response,
+                              Span spanFromRequest, boolean skip, Exception ex) {
         //不处理异常的请求
         if (request.isAsyncStarted()) {
             this.tracer.detach(spanFromRequest);
@@ -145,9 +176,9 @@ public class TraceInterceptor implements HandlerInterceptor {
             addResponseTags(response, ex);
             if (spanFromRequest.hasSavedSpan()) {
                 Span parent = spanFromRequest.getSavedSpan();
-                if (parent != null && parent.isRemote()) {
+                if (parent != null && parent.isRemote() && parent.isExportable()) {
                     parent.logEvent(Span.SERVER_SEND);
-                    this.spanReporter.report(parent);
+                    this.spanReporter.report(parent.finish());
                 }
             }
             // Double close to clean up the parent (remote span as well)
@@ -189,15 +220,15 @@ public class TraceInterceptor implements HandlerInterceptor {
     protected void addRequestTags(HttpServletRequest request) {
 
         //add uid
-        this.tracer.addTag(this.traceKeys.getYoho().getUid(), request.getParameter("uid"));
+        this.tracer.addTag(this.uidKey, request.getParameter("uid"));
 
 
         //add http
         String uri = this.urlPathHelper.getPathWithinApplication(request);
-        this.tracer.addTag(this.traceKeys.getHttp().getUrl(), getFullUrl(request));
-        this.tracer.addTag(this.traceKeys.getHttp().getHost(), request.getServerName());
-        this.tracer.addTag(this.traceKeys.getHttp().getPath(), uri);
-        this.tracer.addTag(this.traceKeys.getHttp().getMethod(), request.getMethod());
+        this.tracer.addTag(this.urlKey, getFullUrl(request));
+        this.tracer.addTag(this.hostKey, request.getServerName());
+        this.tracer.addTag(this.pathKey, uri);
+        this.tracer.addTag(this.methodKey, request.getMethod());
         for (String name : this.traceKeys.getHttp().getHeaders()) {
             Enumeration<String> values = request.getHeaders(name);
             if (values.hasMoreElements()) {
@@ -218,10 +249,10 @@ public class TraceInterceptor implements HandlerInterceptor {
         if (httpStatus == HttpServletResponse.SC_OK && e != null) {
             // Filter chain threw exception but the response status may not have been set
             // yet, so we have to guess.
-            this.tracer.addTag(this.traceKeys.getHttp().getStatusCode(),
+            this.tracer.addTag(this.statusCodeKey,
                     String.valueOf(HttpServletResponse.SC_INTERNAL_SERVER_ERROR));
         } else if ((httpStatus < 200) || (httpStatus > 299)) {
-            this.tracer.addTag(this.traceKeys.getHttp().getStatusCode(),
+            this.tracer.addTag(this.statusCodeKey,
                     String.valueOf(response.getStatus()));
         }
     }
@@ -50,7 +50,13 @@ public abstract class AbstractTraceHttpRequestInterceptor {
 		URI uri = request.getURI();
 		String spanName = uriScheme(uri) + ":" + uri.getPath();
 		Span newSpan = this.tracer.createSpan(spanName);
-		this.spanInjector.inject(newSpan, request);
+		try {
+			this.spanInjector.inject(newSpan, request);
+		}
+		catch (RuntimeException e) {
+			this.tracer.close(newSpan);
+			throw e;
+		}
 		newSpan.logEvent(Span.CLIENT_SEND);
 	}
 
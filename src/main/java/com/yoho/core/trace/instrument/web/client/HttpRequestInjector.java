@@ -16,27 +16,28 @@ class HttpRequestInjector implements SpanInjector<HttpRequest> {
 
 	@Override
 	public void inject(Span span, HttpRequest carrier) {
-		setIdHeader(carrier, Span.TRACE_ID_NAME, span.getTraceId());
-		setIdHeader(carrier, Span.SPAN_ID_NAME, span.getSpanId());
+		setHeader(carrier, Span.TRACE_ID_NAME, span.traceIdString());
+		setHeader(carrier, Span.SPAN_ID_NAME, span.spanIdString());
 		setHeader(carrier, Span.SAMPLED_NAME, span.isExportable() ? Span.SPAN_SAMPLED : Span.SPAN_NOT_SAMPLED);
 		setHeader(carrier, Span.SPAN_NAME_NAME, span.getName());
-		setIdHeader(carrier, Span.PARENT_ID_NAME, getParentId(span));
+		setParentIdHeader(carrier, span);
 		setHeader(carrier, Span.PROCESS_ID_NAME, span.getProcessId());
 	}
 
-	private Long getParentId(Span span) {
-		return !span.getParents().isEmpty() ? span.getParents().get(0) : null;
-	}
-
 	private void setHeader(HttpRequest request, String name, String value) {
 		if (StringUtils.hasText(value) && !request.getHeaders().containsKey(name)) {
 			request.getHeaders().add(name, value);
 		}
 	}
 
-	private void setIdHeader(HttpRequest request, String name, Long value) {
-		if (value != null) {
-			setHeader(request, name, Span.idToHex(value));
+	private void setParentIdHeader(HttpRequest request, Span span) {
+		if (span.getParentCount() == 0) {
+			return;
 		}
+		Span saved = span.getSavedSpan();
+		// the local parent already encoded its id
+		String parentId = saved != null && saved.getSpanId() == span.getParentId(0)
+				? saved.spanIdString() : Span.idToHex(span.getParentId(0));
+		setHeader(request, Span.PARENT_ID_NAME, parentId);
 	}
 }
\ No newline at end of file
@@ -51,16 +51,16 @@ public class Slf4jSpanLogger implements SpanLogger {
 
 	@Override
 	public void logStartedSpan(Span parent, Span span) {
-		MDC.put(Span.SPAN_ID_NAME, Span.idToHex(span.getSpanId()));
+		MDC.put(Span.SPAN_ID_NAME, span.spanIdString());
 		MDC.put(Span.SPAN_EXPORT_NAME, String.valueOf(span.isExportable()));
-		MDC.put(Span.TRACE_ID_NAME, Span.idToHex(span.getTraceId()));
+		MDC.put(Span.TRACE_ID_NAME, span.traceIdString());
 		log("Starting span: {} With parent: {} ", span, parent);
 	}
 
 	@Override
 	public void logContinuedSpan(Span span) {
-		MDC.put(Span.SPAN_ID_NAME, Span.idToHex(span.getSpanId()));
-		MDC.put(Span.TRACE_ID_NAME, Span.idToHex(span.getTraceId()));
+		MDC.put(Span.SPAN_ID_NAME, span.spanIdString());
+		MDC.put(Span.TRACE_ID_NAME, span.traceIdString());
 		MDC.put(Span.SPAN_EXPORT_NAME, String.valueOf(span.isExportable()));
 		log("Continued span: {} With parent: {}", span, null);
 	}
@@ -69,7 +69,7 @@ public class Slf4jSpanLogger implements SpanLogger {
 	public void logStoppedSpan(Span parent, Span span) {
 		log("Stopped span: {} With parent: {}", span, parent);
 		if (parent != null) {
-			MDC.put(Span.SPAN_ID_NAME, Span.idToHex(parent.getSpanId()));
+			MDC.put(Span.SPAN_ID_NAME, parent.spanIdString());
 			MDC.put(Span.SPAN_EXPORT_NAME, String.valueOf(parent.isExportable()));
 		}
 		else {
@@ -80,7 +80,8 @@ public class Slf4jSpanLogger implements SpanLogger {
 	}
 
 	private void log(String text, Span span, Span parent) {
-		if (this.nameSkipPattern.matcher(span.getName()).matches()) {
+		if (!this.log.isTraceEnabled()
+				|| this.nameSkipPattern.matcher(span.getName()).matches()) {
 			return;
 		}
 		this.log.trace(text, span, parent);
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanReporter;
+import com.yoho.core.trace.codec.CompactSpanCodec;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageListener;
+
+/**
+ * Consumer side of {@link AmqpSpanSender}: decodes span batches written with
+ * {@link CompactSpanCodec} and hands every span to a {@link SpanReporter}, for example
+ * a storage or aggregation component. Register it with any listener container.
+ * <p>
+ * Messages of another content type are skipped, as are messages that can't be
+ * decoded - redelivering a corrupt message would never succeed.
+ *
+ * @since 1.0.6
+ */
+public class AmqpSpanMessageListener implements MessageListener {
+
+	private static final Log log = LogFactory.getLog(AmqpSpanMessageListener.class);
+
+	private final SpanReporter target;
+	private final CompactSpanCodec codec;
+
+	private final AtomicLong receivedSpans = new AtomicLong();
+	private final AtomicLong rejectedMessages = new AtomicLong();
+
+	public AmqpSpanMessageListener(SpanReporter target) {
+		this(target, new CompactSpanCodec());
+	}
+
+	public AmqpSpanMessageListener(SpanReporter target, CompactSpanCodec codec) {
+		this.target = target;
+		this.codec = codec;
+	}
+
+	@Override
+	public void onMessage(Message message) {
+		String contentType = message.getMessageProperties().getContentType();
+		if (!CompactSpanCodec.MEDIA_TYPE.equals(contentType)) {
+			this.rejectedMessages.incrementAndGet();
+			log.warn("Skipping span message of unsupported content type " + contentType);
+			return;
+		}
+		List<Span> spans;
+		try {
+			spans = this.codec.decodeList(ByteBuffer.wrap(message.getBody()));
+		}
+		catch (RuntimeException e) {
+			this.rejectedMessages.incrementAndGet();
+			log.warn("Skipping span message that can't be decoded", e);
+			return;
+		}
+		for (int i = 0, size = spans.size(); i < size; i++) {
+			this.target.report(spans.get(i));
+		}
+		this.receivedSpans.addAndGet(spans.size());
+	}
+
+	public long getReceivedSpans() {
+		return this.receivedSpans.get();
+	}
+
+	public long getRejectedMessages() {
+		return this.rejectedMessages.get();
+	}
+}
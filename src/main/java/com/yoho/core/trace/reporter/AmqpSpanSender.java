@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.codec.CompactSpanCodec;
+import com.yoho.core.trace.codec.SpanEncoder;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+
+/**
+ * {@link SpanSender} that publishes every batch as a single AMQP message through an
+ * {@link AmqpTemplate}, so one channel of the template carries all spans of the process.
+ * <p>
+ * Batches are encoded with {@link CompactSpanCodec} by default, which
+ * {@link AmqpSpanMessageListener} decodes on the consumer side. Pass a
+ * {@link com.yoho.core.trace.codec.ZipkinJsonV2SpanEncoder} to feed zipkin's RabbitMQ
+ * collector directly. Messages are persistent by default so that spans survive a
+ * collector outage in the queue.
+ * <p>
+ * Messages are published fire-and-forget: a publish that fails right away, for example
+ * because the connection is down, surfaces as an
+ * {@link org.springframework.amqp.AmqpException} which the driving
+ * {@link AsyncBatchingSpanReporter} counts as failed spans. A message the broker
+ * rejects later is not seen by this sender - {@link AmqpTemplate} has no notion of
+ * publisher confirms, handle them with the confirm callback of the broker specific
+ * template handed in here.
+ *
+ * @since 1.0.6
+ */
+public class AmqpSpanSender implements SpanSender {
+
+	/**
+	 * Header carrying the number of spans in the message
+	 */
+	public static final String SPAN_COUNT_HEADER = "X-Span-Count";
+
+	private final AmqpTemplate amqpTemplate;
+	private final String exchange;
+	private final String routingKey;
+	private final SpanEncoder encoder;
+
+	private MessageDeliveryMode deliveryMode = MessageDeliveryMode.PERSISTENT;
+
+	/** guarded by this */
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream(16 * 1024);
+
+	private final AtomicLong sentMessages = new AtomicLong();
+	private final AtomicLong sentBytes = new AtomicLong();
+
+	public AmqpSpanSender(AmqpTemplate amqpTemplate, String exchange, String routingKey) {
+		this(amqpTemplate, exchange, routingKey, new CompactSpanCodec());
+	}
+
+	public AmqpSpanSender(AmqpTemplate amqpTemplate, String exchange, String routingKey,
+			SpanEncoder encoder) {
+		this.amqpTemplate = amqpTemplate;
+		this.exchange = exchange;
+		this.routingKey = routingKey;
+		this.encoder = encoder;
+	}
+
+	@Override
+	public synchronized void send(List<Span> spans) {
+		if (spans.isEmpty()) {
+			return;
+		}
+		this.body.reset();
+		try {
+			this.encoder.encode(spans, this.body);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Can't encode " + spans.size() + " spans", e);
+		}
+		MessageProperties properties = new MessageProperties();
+		properties.setContentType(this.encoder.getMediaType());
+		properties.setDeliveryMode(this.deliveryMode);
+		properties.setHeader(SPAN_COUNT_HEADER, spans.size());
+		byte[] payload = this.body.toByteArray();
+		this.amqpTemplate.send(this.exchange, this.routingKey, new Message(payload, properties));
+		this.sentMessages.incrementAndGet();
+		this.sentBytes.addAndGet(payload.length);
+	}
+
+	public void setDeliveryMode(MessageDeliveryMode deliveryMode) {
+		this.deliveryMode = deliveryMode;
+	}
+
+	public long getSentMessages() {
+		return this.sentMessages.get();
+	}
+
+	public long getSentBytes() {
+		return this.sentBytes.get();
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanReporter;
+import com.yoho.core.trace.util.MpscRingBuffer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link SpanReporter} that never blocks the reporting thread. Finished spans are
+ * put into a bounded {@link MpscRingBuffer} and a single background thread drains
+ * them to a {@link SpanSender} in batches of {@code batchSize} spans, or earlier if
+ * the oldest queued span has waited {@code maxLatencyMillis}.
+ * <p>
+ * With a {@link SpanPrioritizer} every {@link SpanLane} gets a queue of its own and
+ * batches are filled from the most valuable lane first. Under overload the low
+ * priority lanes fill up and shed their spans while errors, slow and root spans keep
+ * flowing. Classification and enqueueing take constant time on the reporting thread.
+ * <p>
+ * When a queue is full the span is dropped and counted per lane in
+ * {@link #getDroppedSpans(SpanLane)}. {@link #close()} stops accepting spans, flushes
+ * whatever is still queued and stops the background thread - register it as the
+ * {@code destroy-method} of the bean. A span reported while closing is either sent or
+ * counted in {@link #getDroppedAfterClose()}, never left behind in a queue.
+ *
+ * @since 1.0.6
+ */
+public class AsyncBatchingSpanReporter implements SpanReporter, Closeable {
+
+	private static final Log log = LogFactory.getLog(AsyncBatchingSpanReporter.class);
+
+	public static final int DEFAULT_QUEUE_SIZE = 8192;
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final long DEFAULT_MAX_LATENCY_MILLIS = 1000;
+	private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+	private static final SpanLane[] LANES = SpanLane.values();
+
+	private final SpanSender sender;
+	private final SpanPrioritizer prioritizer;
+	/** indexed by {@link SpanLane#ordinal()}, {@code null} for unused lanes */
+	private final List<MpscRingBuffer<Span>> queues;
+	private final int batchSize;
+	private final long maxLatencyNanos;
+	private final Thread drainer;
+
+	private final AtomicBoolean closed = new AtomicBoolean();
+	/** owned by the drainer until it exits, then by whoever discards late spans */
+	private final AtomicBoolean consuming = new AtomicBoolean(true);
+	private volatile boolean drainerParked = false;
+	private volatile SpanReporterMetrics metrics;
+
+	private final AtomicLong queuedSpans = new AtomicLong();
+	private final AtomicLongArray droppedSpans = new AtomicLongArray(LANES.length);
+	private final AtomicLong droppedAfterClose = new AtomicLong();
+	private final AtomicLong sentSpans = new AtomicLong();
+	private final AtomicLong sentBatches = new AtomicLong();
+	private final AtomicLong failedSpans = new AtomicLong();
+
+	public AsyncBatchingSpanReporter(SpanSender sender) {
+		this(sender, DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_MAX_LATENCY_MILLIS);
+	}
+
+	/**
+	 * Creates a reporter with a single queue, all spans go to the {@link SpanLane#DEFAULT} lane
+	 */
+	public AsyncBatchingSpanReporter(SpanSender sender, int queueSize, int batchSize,
+			long maxLatencyMillis) {
+		this(sender, null, Collections.singletonMap(SpanLane.DEFAULT, queueSize), batchSize,
+				maxLatencyMillis);
+	}
+
+	/**
+	 * Creates a reporter with a queue per {@link SpanLane}
+	 *
+	 * @param laneCapacities capacity of each lane's queue, lanes that are missing get
+	 * {@link #DEFAULT_QUEUE_SIZE}
+	 */
+	public AsyncBatchingSpanReporter(SpanSender sender, SpanPrioritizer prioritizer,
+			Map<SpanLane, Integer> laneCapacities, int batchSize, long maxLatencyMillis) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive but was " + batchSize);
+		}
+		this.sender = sender;
+		this.prioritizer = prioritizer;
+		this.queues = createQueues(prioritizer == null ? EnumSet.of(SpanLane.DEFAULT)
+				: EnumSet.allOf(SpanLane.class), laneCapacities);
+		this.batchSize = batchSize;
+		this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+		this.drainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "trace-span-reporter");
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+
+	private static List<MpscRingBuffer<Span>> createQueues(Set<SpanLane> lanes,
+			Map<SpanLane, Integer> capacities) {
+		List<MpscRingBuffer<Span>> queues = new ArrayList<>(LANES.length);
+		for (SpanLane lane : LANES) {
+			Integer capacity = capacities == null ? null : capacities.get(lane);
+			queues.add(lanes.contains(lane)
+					? new MpscRingBuffer<Span>(capacity != null ? capacity : DEFAULT_QUEUE_SIZE)
+					: null);
+		}
+		return queues;
+	}
+
+	@Override
+	public void report(Span span) {
+		if (span == null) {
+			return;
+		}
+		if (this.closed.get()) {
+			this.droppedAfterClose.incrementAndGet();
+			recordDropped(SpanDropReason.CLOSED, 1);
+			return;
+		}
+		SpanLane lane = this.prioritizer == null ? SpanLane.DEFAULT : this.prioritizer.laneOf(span);
+		if (!this.queues.get(lane.ordinal()).offer(span)) {
+			this.droppedSpans.incrementAndGet(lane.ordinal());
+			recordDropped(SpanDropReason.QUEUE_FULL, 1);
+			return;
+		}
+		this.queuedSpans.incrementAndGet();
+		if (this.closed.get()) {
+			// closed since the check above, the drainer may have had its last look
+			discardLateSpans();
+		}
+		else if (this.drainerParked && getQueueDepth() >= this.batchSize) {
+			LockSupport.unpark(this.drainer);
+		}
+	}
+
+	private void recordDropped(SpanDropReason reason, int count) {
+		if (this.metrics != null) {
+			this.metrics.recordDropped(reason, count);
+		}
+	}
+
+	/**
+	 * Stops accepting new spans, sends everything that is still queued and waits for
+	 * the background thread to finish.
+	 */
+	@Override
+	public void close() {
+		if (!this.closed.compareAndSet(false, true)) {
+			return;
+		}
+		LockSupport.unpark(this.drainer);
+		try {
+			this.drainer.join(CLOSE_TIMEOUT_MILLIS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.drainer.isAlive()) {
+			log.warn("Span reporter did not flush within " + CLOSE_TIMEOUT_MILLIS
+					+ " ms, " + getQueueDepth() + " spans may be lost");
+		}
+	}
+
+	private void drain() {
+		List<Span> batch = new ArrayList<>(this.batchSize);
+		long batchStart = 0;
+		while (!this.closed.get() || getQueueDepth() > 0) {
+			for (MpscRingBuffer<Span> queue : this.queues) {
+				if (queue != null && batch.size() < this.batchSize) {
+					queue.drainTo(batch, this.batchSize - batch.size());
+				}
+			}
+			if (batch.isEmpty()) {
+				park(this.maxLatencyNanos);
+				continue;
+			}
+			long now = System.nanoTime();
+			if (batchStart == 0) {
+				batchStart = now;
+			}
+			long waited = now - batchStart;
+			if (batch.size() >= this.batchSize || waited >= this.maxLatencyNanos
+					|| this.closed.get()) {
+				send(batch);
+				batchStart = 0;
+			}
+			else {
+				park(this.maxLatencyNanos - waited);
+			}
+		}
+		if (!batch.isEmpty()) {
+			send(batch);
+		}
+		this.consuming.set(false);
+		discardLateSpans();
+	}
+
+	/**
+	 * Takes the queues over from the drainer that exited and drops what a report racing
+	 * with {@link #close()} put into them. Whoever fails to take them over leaves its
+	 * span to the current owner, which looks at the queues again once it lets go.
+	 */
+	private void discardLateSpans() {
+		List<Span> late = new ArrayList<>();
+		while (getQueueDepth() > 0 && this.consuming.compareAndSet(false, true)) {
+			for (MpscRingBuffer<Span> queue : this.queues) {
+				if (queue != null) {
+					queue.drainTo(late, Integer.MAX_VALUE);
+				}
+			}
+			this.consuming.set(false);
+			this.droppedAfterClose.addAndGet(late.size());
+			recordDropped(SpanDropReason.CLOSED, late.size());
+			late.clear();
+		}
+	}
+
+	private void park(long nanos) {
+		this.drainerParked = true;
+		if (!this.closed.get()) {
+			LockSupport.parkNanos(this, nanos);
+		}
+		this.drainerParked = false;
+	}
+
+	private void send(List<Span> batch) {
+		try {
+			this.sender.send(batch);
+			this.sentSpans.addAndGet(batch.size());
+			this.sentBatches.incrementAndGet();
+		}
+		catch (Throwable e) {
+			// errors too, a dead drainer would silently drop every span from now on
+			this.failedSpans.addAndGet(batch.size());
+			log.error("Failed to send " + batch.size() + " spans", e);
+		}
+		finally {
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Also records dropped spans in the given metrics, set it before spans are reported
+	 */
+	public void setMetrics(SpanReporterMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Number of spans currently waiting in all queues
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (MpscRingBuffer<Span> queue : this.queues) {
+			if (queue != null) {
+				depth += queue.size();
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Number of spans currently waiting in the given lane
+	 */
+	public int getQueueDepth(SpanLane lane) {
+		MpscRingBuffer<Span> queue = this.queues.get(lane.ordinal());
+		return queue == null ? 0 : queue.size();
+	}
+
+	public int getQueueCapacity() {
+		int capacity = 0;
+		for (MpscRingBuffer<Span> queue : this.queues) {
+			if (queue != null) {
+				capacity += queue.capacity();
+			}
+		}
+		return capacity;
+	}
+
+	/**
+	 * Number of spans accepted into the queue since start
+	 */
+	public long getQueuedSpans() {
+		return this.queuedSpans.get();
+	}
+
+	/**
+	 * Number of spans rejected because their queue was full or the reporter was closed
+	 */
+	public long getDroppedSpans() {
+		long dropped = this.droppedAfterClose.get();
+		for (int i = 0; i < LANES.length; i++) {
+			dropped += this.droppedSpans.get(i);
+		}
+		return dropped;
+	}
+
+	/**
+	 * Number of spans rejected because the queue of the given lane was full
+	 */
+	public long getDroppedSpans(SpanLane lane) {
+		return this.droppedSpans.get(lane.ordinal());
+	}
+
+	/**
+	 * Number of spans rejected because they were reported after {@link #close()}
+	 */
+	public long getDroppedAfterClose() {
+		return this.droppedAfterClose.get();
+	}
+
+	public long getSentSpans() {
+		return this.sentSpans.get();
+	}
+
+	public long getSentBatches() {
+		return this.sentBatches.get();
+	}
+
+	/**
+	 * Number of spans in batches for which the {@link SpanSender} threw an exception
+	 */
+	public long getFailedSpans() {
+		return this.failedSpans.get();
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanReporter;
+
+/**
+ * {@link SpanReporter} fanning every span out to several {@link SpanSink sinks}, for
+ * example a remote collector, a local file and an in-process aggregator. Each sink has
+ * its own queue and thread, so a slow or failing sink only drops its own spans:
+ * <pre>{@code
+ * <bean id="trace.spanReporter" class="com.yoho.core.trace.reporter.CompositeSpanReporter"
+ *       destroy-method="close">
+ *     <constructor-arg>
+ *         <list>
+ *             <bean class="com.yoho.core.trace.reporter.SpanSink">
+ *                 <constructor-arg value="zipkin"/>
+ *                 <constructor-arg ref="zipkinReporter"/>
+ *                 <property name="sampler" ref="zipkinSampler"/>
+ *             </bean>
+ *             <bean class="com.yoho.core.trace.reporter.SpanSink">
+ *                 <constructor-arg value="aggregator"/>
+ *                 <constructor-arg ref="aggregatingReporter"/>
+ *             </bean>
+ *         </list>
+ *     </constructor-arg>
+ * </bean>
+ * }</pre>
+ * Reporting costs one queue offer per sink on the application thread. {@link #close()}
+ * flushes and stops every sink; it does not close their reporters.
+ *
+ * @since 1.0.6
+ */
+public class CompositeSpanReporter implements SpanReporter, Closeable {
+
+	private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+	private final SpanSink[] sinks;
+
+	public CompositeSpanReporter(List<SpanSink> sinks) {
+		this.sinks = sinks.toArray(new SpanSink[sinks.size()]);
+		for (SpanSink sink : this.sinks) {
+			sink.start();
+		}
+	}
+
+	@Override
+	public void report(Span span) {
+		if (span == null) {
+			return;
+		}
+		for (SpanSink sink : this.sinks) {
+			sink.offer(span);
+		}
+	}
+
+	/**
+	 * Flushes all sinks in parallel, waiting at most 5 seconds in total
+	 */
+	@Override
+	public void close() {
+		long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+		for (SpanSink sink : this.sinks) {
+			sink.stop();
+		}
+		for (SpanSink sink : this.sinks) {
+			sink.awaitTermination(Math.max(1, deadline - System.currentTimeMillis()));
+		}
+	}
+
+	public List<SpanSink> getSinks() {
+		return Collections.unmodifiableList(Arrays.asList(this.sinks));
+	}
+
+	/**
+	 * Sinks whose reporter is currently failing
+	 */
+	public List<SpanSink> getUnhealthySinks() {
+		List<SpanSink> unhealthy = new ArrayList<>();
+		for (SpanSink sink : this.sinks) {
+			if (!sink.isHealthy()) {
+				unhealthy.add(sink);
+			}
+		}
+		return unhealthy;
+	}
+}
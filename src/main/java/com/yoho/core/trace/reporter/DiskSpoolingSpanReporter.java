@@ -0,0 +1,449 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanReporter;
+import com.yoho.core.trace.codec.CompactSpanCodec;
+import com.yoho.core.trace.codec.SpanCodec;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link SpanReporter} decorator that spills spans to disk while its delegate is
+ * failing and replays them once the delegate recovers.
+ * <p>
+ * As long as nothing is spooled spans go straight to the delegate. If the delegate
+ * throws, the span is encoded with the given {@link SpanCodec} and appended to a
+ * memory-mapped {@link SpoolSegment}; from then on new spans are appended as well to
+ * keep their order, and a replay thread forwards spooled spans to the delegate,
+ * backing off for {@code retryIntervalMillis} whenever it still fails.
+ * <p>
+ * The delegate signals failure by throwing - a delegate that silently drops spans
+ * will never cause anything to be spooled.
+ * <p>
+ * Segments survive restarts: on start the directory is scanned, partially written
+ * records are discarded and unread spans are replayed. When spooling a new segment
+ * would exceed {@code maxDiskBytes} the oldest segment is evicted together with its
+ * unread spans.
+ *
+ * @since 1.0.6
+ */
+public class DiskSpoolingSpanReporter implements SpanReporter, Closeable {
+
+	private static final Log log = LogFactory.getLog(DiskSpoolingSpanReporter.class);
+
+	public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+	public static final long DEFAULT_MAX_DISK_BYTES = 256L * 1024 * 1024;
+	public static final long DEFAULT_RETRY_INTERVAL_MILLIS = 1000;
+	private static final String SEGMENT_PREFIX = "spans-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final int INITIAL_ENCODE_BUFFER_SIZE = 16 * 1024;
+
+	private final SpanReporter delegate;
+	private final SpanCodec codec;
+	private final File directory;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final long retryIntervalMillis;
+	private final Thread replayer;
+
+	private final Object lock = new Object();
+	/** oldest first - guarded by {@link #lock} */
+	private final Deque<SpoolSegment> segments = new ArrayDeque<>();
+	/** guarded by {@link #lock} */
+	private long nextSegmentSequence;
+	/** guarded by {@link #lock} */
+	private ByteBuffer encodeBuffer = ByteBuffer.allocate(INITIAL_ENCODE_BUFFER_SIZE);
+	/** only used by the replay thread */
+	private ByteBuffer replayBuffer = ByteBuffer.allocate(INITIAL_ENCODE_BUFFER_SIZE);
+
+	private volatile boolean closed = false;
+	private volatile SpanReporterMetrics metrics;
+
+	private final AtomicLong pendingSpans = new AtomicLong();
+	private final AtomicLong spooledSpans = new AtomicLong();
+	private final AtomicLong replayedSpans = new AtomicLong();
+	private final AtomicLong evictedSpans = new AtomicLong();
+	private final AtomicLong droppedSpans = new AtomicLong();
+
+	public DiskSpoolingSpanReporter(SpanReporter delegate, String directory) throws IOException {
+		this(delegate, new CompactSpanCodec(), directory);
+	}
+
+	public DiskSpoolingSpanReporter(SpanReporter delegate, SpanCodec codec, String directory)
+			throws IOException {
+		this(delegate, codec, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_DISK_BYTES,
+				DEFAULT_RETRY_INTERVAL_MILLIS);
+	}
+
+	public DiskSpoolingSpanReporter(SpanReporter delegate, SpanCodec codec, String directory,
+			int segmentSize, long maxDiskBytes, long retryIntervalMillis) throws IOException {
+		if (segmentSize <= SpoolSegment.HEADER_SIZE + SpoolSegment.RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("Segment size " + segmentSize + " is too small");
+		}
+		this.delegate = delegate;
+		this.codec = codec;
+		this.directory = new File(directory);
+		this.segmentSize = segmentSize;
+		this.maxSegments = (int) Math.max(1, maxDiskBytes / segmentSize);
+		this.retryIntervalMillis = retryIntervalMillis;
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Can't create spool directory " + this.directory);
+		}
+		recoverSegments();
+		this.replayer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				replay();
+			}
+		}, "trace-span-spool-replay");
+		this.replayer.setDaemon(true);
+		this.replayer.start();
+	}
+
+	private void recoverSegments() throws IOException {
+		File[] files = this.directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().startsWith(SEGMENT_PREFIX)
+						&& file.getName().endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+		// the zero padded sequence keeps the lexical order equal to the creation order
+		Arrays.sort(files);
+		for (File file : files) {
+			this.nextSegmentSequence = Math.max(this.nextSegmentSequence, sequenceOf(file) + 1);
+			SpoolSegment segment = SpoolSegment.recover(file);
+			if (segment == null || segment.isFullyRead()) {
+				if (segment == null) {
+					log.warn("Deleting unrecognized spool segment " + file);
+				}
+				if (!file.delete()) {
+					log.warn("Can't delete spool segment " + file);
+				}
+				continue;
+			}
+			this.segments.addLast(segment);
+			this.pendingSpans.addAndGet(segment.getPendingRecords());
+		}
+		if (!this.segments.isEmpty()) {
+			log.info("Recovered " + this.pendingSpans.get() + " spooled spans from "
+					+ this.segments.size() + " segments in " + this.directory);
+		}
+	}
+
+	private static long sequenceOf(File file) {
+		String name = file.getName();
+		try {
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+					name.length() - SEGMENT_SUFFIX.length()));
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public void report(Span span) {
+		if (span == null) {
+			return;
+		}
+		if (this.pendingSpans.get() == 0) {
+			try {
+				this.delegate.report(span);
+				return;
+			}
+			catch (RuntimeException e) {
+				if (log.isDebugEnabled()) {
+					log.debug("Delegate reporter failed, spooling span " + span, e);
+				}
+			}
+		}
+		spool(span);
+	}
+
+	private void dropped() {
+		this.droppedSpans.incrementAndGet();
+		if (this.metrics != null) {
+			this.metrics.recordDropped(SpanDropReason.SPOOL_FAILED, 1);
+		}
+	}
+
+	private void spool(Span span) {
+		synchronized (this.lock) {
+			if (this.closed) {
+				dropped();
+				return;
+			}
+			try {
+				ByteBuffer payload = encode(span);
+				if (payload == null) {
+					dropped();
+					return;
+				}
+				SpoolSegment tail = this.segments.peekLast();
+				if (tail == null || !tail.append(payload)) {
+					tail = rollSegment();
+					tail.append(payload);
+				}
+				this.pendingSpans.incrementAndGet();
+				this.spooledSpans.incrementAndGet();
+				this.lock.notifyAll();
+			}
+			catch (IOException e) {
+				dropped();
+				log.warn("Can't spool span " + span, e);
+			}
+		}
+	}
+
+	/**
+	 * Encodes the span into the shared encode buffer, growing it up to the largest
+	 * record a segment can hold.
+	 *
+	 * @return the flipped buffer or {@code null} if the span is too large to be spooled
+	 */
+	private ByteBuffer encode(Span span) {
+		int maxRecordSize = this.segmentSize - SpoolSegment.HEADER_SIZE - SpoolSegment.RECORD_HEADER_SIZE;
+		for (;;) {
+			this.encodeBuffer.clear();
+			try {
+				this.codec.encode(span, this.encodeBuffer);
+				this.encodeBuffer.flip();
+				return this.encodeBuffer;
+			}
+			catch (BufferOverflowException e) {
+				if (this.encodeBuffer.capacity() >= maxRecordSize) {
+					log.warn("Span " + span + " does not fit into a spool segment of "
+							+ this.segmentSize + " bytes");
+					return null;
+				}
+				this.encodeBuffer = ByteBuffer.allocate(
+						Math.min(maxRecordSize, this.encodeBuffer.capacity() * 2));
+			}
+		}
+	}
+
+	private SpoolSegment rollSegment() throws IOException {
+		SpoolSegment previous = this.segments.peekLast();
+		if (previous != null) {
+			previous.force();
+		}
+		while (this.segments.size() >= this.maxSegments) {
+			SpoolSegment oldest = this.segments.removeFirst();
+			this.pendingSpans.addAndGet(-oldest.getPendingRecords());
+			this.evictedSpans.addAndGet(oldest.getPendingRecords());
+			if (this.metrics != null) {
+				this.metrics.recordDropped(SpanDropReason.SPOOL_EVICTED, oldest.getPendingRecords());
+			}
+			oldest.delete();
+			log.warn("Spool disk budget exceeded, evicted " + oldest.getPendingRecords()
+					+ " spans in " + oldest.getFile());
+		}
+		File file = new File(this.directory,
+				String.format("%s%019d%s", SEGMENT_PREFIX, this.nextSegmentSequence++, SEGMENT_SUFFIX));
+		SpoolSegment segment = SpoolSegment.create(file, this.segmentSize);
+		this.segments.addLast(segment);
+		return segment;
+	}
+
+	private void replay() {
+		while (!this.closed) {
+			SpoolSegment segment;
+			int readPosition;
+			synchronized (this.lock) {
+				segment = nextUnreadSegment();
+				if (segment == null) {
+					waitForSpans();
+					continue;
+				}
+				ensureReplayCapacity(segment);
+				segment.readNext(this.replayBuffer);
+				readPosition = segment.getReadPosition();
+			}
+			Span span;
+			try {
+				span = this.codec.decode(this.replayBuffer);
+			}
+			catch (Throwable e) {
+				log.warn("Skipping spooled span that can't be decoded", e);
+				dropped();
+				markDelivered(segment, readPosition);
+				continue;
+			}
+			try {
+				this.delegate.report(span);
+			}
+			catch (Throwable e) {
+				if (log.isDebugEnabled()) {
+					log.debug("Delegate reporter still failing, retrying in "
+							+ this.retryIntervalMillis + " ms", e);
+				}
+				sleep(this.retryIntervalMillis);
+				continue;
+			}
+			if (markDelivered(segment, readPosition)) {
+				this.replayedSpans.incrementAndGet();
+			}
+		}
+	}
+
+	private SpoolSegment nextUnreadSegment() {
+		while (!this.segments.isEmpty()) {
+			SpoolSegment head = this.segments.peekFirst();
+			if (!head.isFullyRead()) {
+				return head;
+			}
+			if (head == this.segments.peekLast()) {
+				return null;
+			}
+			this.segments.removeFirst();
+			head.delete();
+		}
+		return null;
+	}
+
+	private void ensureReplayCapacity(SpoolSegment segment) {
+		if (this.replayBuffer.capacity() < segment.getSize()) {
+			// a record can't be larger than its segment - grow at most once per size
+			this.replayBuffer = ByteBuffer.allocate(segment.getSize());
+		}
+	}
+
+	/**
+	 * @return {@code false} if the record got evicted while it was being delivered
+	 */
+	private boolean markDelivered(SpoolSegment segment, int readPosition) {
+		synchronized (this.lock) {
+			if (this.segments.peekFirst() != segment || segment.getReadPosition() != readPosition) {
+				return false;
+			}
+			segment.advance();
+			this.pendingSpans.decrementAndGet();
+			if (segment.isFullyRead() && segment != this.segments.peekLast()) {
+				this.segments.removeFirst();
+				segment.delete();
+			}
+			return true;
+		}
+	}
+
+	private void waitForSpans() {
+		try {
+			this.lock.wait(this.retryIntervalMillis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.closed = true;
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.closed = true;
+		}
+	}
+
+	/**
+	 * Stops the replay thread and flushes the segments to disk. Spans that are still
+	 * spooled will be replayed on the next start.
+	 */
+	@Override
+	public void close() {
+		synchronized (this.lock) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			this.lock.notifyAll();
+		}
+		this.replayer.interrupt();
+		try {
+			this.replayer.join(this.retryIntervalMillis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this.lock) {
+			for (SpoolSegment segment : this.segments) {
+				segment.force();
+			}
+		}
+	}
+
+	/**
+	 * Also records dropped and evicted spans in the given metrics, set it before spans
+	 * are reported
+	 */
+	public void setMetrics(SpanReporterMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Number of spans spooled on disk and not yet delivered
+	 */
+	public long getPendingSpans() {
+		return this.pendingSpans.get();
+	}
+
+	public long getSpooledSpans() {
+		return this.spooledSpans.get();
+	}
+
+	public long getReplayedSpans() {
+		return this.replayedSpans.get();
+	}
+
+	/**
+	 * Number of undelivered spans lost because the disk budget was exceeded
+	 */
+	public long getEvictedSpans() {
+		return this.evictedSpans.get();
+	}
+
+	/**
+	 * Number of spans that could neither be delivered nor spooled
+	 */
+	public long getDroppedSpans() {
+		return this.droppedSpans.get();
+	}
+
+	public int getSegmentCount() {
+		synchronized (this.lock) {
+			return this.segments.size();
+		}
+	}
+}
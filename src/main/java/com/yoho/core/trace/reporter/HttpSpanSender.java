@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.codec.SpanEncoder;
+import com.yoho.core.trace.codec.ZipkinJsonV2SpanEncoder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link SpanSender} that POSTs each batch to a Zipkin compatible collector, by default
+ * {@code http://host:9411/api/v2/spans} with Zipkin v2 JSON bodies.
+ * <p>
+ * Bodies larger than {@code compressionThreshold} bytes are gzipped. Connection
+ * failures, {@code 429} and {@code 5xx} responses are retried up to
+ * {@code maxRetries} times with an exponential backoff capped at
+ * {@code maxBackoffMillis}; other error responses are not retried. The response is
+ * always read to the end, which lets {@link HttpURLConnection} keep the connection
+ * alive and reuse it for the next batch.
+ * <p>
+ * The sender blocks while it retries, so it has to be driven by a reporter thread:
+ * <pre>{@code
+ * <bean id="trace.spanReporter" class="com.yoho.core.trace.reporter.AsyncBatchingSpanReporter"
+ *       destroy-method="close">
+ *     <constructor-arg>
+ *         <bean class="com.yoho.core.trace.reporter.HttpSpanSender">
+ *             <constructor-arg value="http://zipkin:9411/api/v2/spans"/>
+ *         </bean>
+ *     </constructor-arg>
+ * </bean>
+ * }</pre>
+ *
+ * @since 1.0.6
+ */
+public class HttpSpanSender implements SpanSender {
+
+	private static final Log log = LogFactory.getLog(HttpSpanSender.class);
+
+	private final URL endpoint;
+	private final SpanEncoder encoder;
+
+	private int compressionThreshold = 1024;
+	private int maxRetries = 3;
+	private long initialBackoffMillis = 100;
+	private long maxBackoffMillis = 5000;
+	private int connectTimeoutMillis = 1000;
+	private int readTimeoutMillis = 5000;
+
+	/** guarded by this */
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream(64 * 1024);
+	/** guarded by this */
+	private final ByteArrayOutputStream compressedBody = new ByteArrayOutputStream(16 * 1024);
+	/** guarded by this */
+	private final byte[] responseBuffer = new byte[1024];
+
+	private final AtomicLong sentBytes = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+
+	public HttpSpanSender(String endpoint) throws MalformedURLException {
+		this(endpoint, new ZipkinJsonV2SpanEncoder());
+	}
+
+	public HttpSpanSender(String endpoint, SpanEncoder encoder) throws MalformedURLException {
+		this.endpoint = new URL(endpoint);
+		this.encoder = encoder;
+	}
+
+	@Override
+	public synchronized void send(List<Span> spans) {
+		if (spans.isEmpty()) {
+			return;
+		}
+		ByteArrayOutputStream payload;
+		boolean gzipped;
+		try {
+			this.body.reset();
+			this.encoder.encode(spans, this.body);
+			gzipped = this.body.size() > this.compressionThreshold;
+			payload = gzipped ? gzip(this.body) : this.body;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Can't encode " + spans.size() + " spans", e);
+		}
+		long backoff = this.initialBackoffMillis;
+		for (int attempt = 0; ; attempt++) {
+			Exception failure;
+			try {
+				int status = post(payload, gzipped);
+				if (status < 300) {
+					this.sentBytes.addAndGet(payload.size());
+					return;
+				}
+				failure = new IOException("Collector " + this.endpoint + " responded with " + status);
+				if (status != 429 && status < 500) {
+					throw new IllegalStateException("Collector rejected " + spans.size() + " spans", failure);
+				}
+			}
+			catch (IOException e) {
+				failure = e;
+			}
+			if (attempt >= this.maxRetries) {
+				throw new IllegalStateException("Failed to send " + spans.size() + " spans after "
+						+ (attempt + 1) + " attempts", failure);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Failed to send spans, retrying in " + backoff + " ms", failure);
+			}
+			this.retries.incrementAndGet();
+			try {
+				Thread.sleep(backoff);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while sending spans", failure);
+			}
+			backoff = Math.min(backoff * 2, this.maxBackoffMillis);
+		}
+	}
+
+	private ByteArrayOutputStream gzip(ByteArrayOutputStream source) throws IOException {
+		this.compressedBody.reset();
+		GZIPOutputStream gzip = new GZIPOutputStream(this.compressedBody, 8192);
+		try {
+			source.writeTo(gzip);
+		}
+		finally {
+			gzip.close();
+		}
+		return this.compressedBody;
+	}
+
+	private int post(ByteArrayOutputStream payload, boolean gzipped) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) this.endpoint.openConnection();
+		connection.setConnectTimeout(this.connectTimeoutMillis);
+		connection.setReadTimeout(this.readTimeoutMillis);
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", this.encoder.getMediaType());
+		if (gzipped) {
+			connection.setRequestProperty("Content-Encoding", "gzip");
+		}
+		connection.setFixedLengthStreamingMode(payload.size());
+		OutputStream out = connection.getOutputStream();
+		try {
+			payload.writeTo(out);
+		}
+		finally {
+			out.close();
+		}
+		int status = connection.getResponseCode();
+		consume(status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+		return status;
+	}
+
+	/**
+	 * Reads the response to the end so that the connection goes back to the keep-alive cache
+	 */
+	private void consume(InputStream in) throws IOException {
+		if (in == null) {
+			return;
+		}
+		try {
+			while (in.read(this.responseBuffer) != -1) {
+				// discard
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Bodies larger than this are sent gzipped. Defaults to 1024 bytes.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Number of retries after the first attempt. Defaults to 3.
+	 */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public void setInitialBackoffMillis(long initialBackoffMillis) {
+		this.initialBackoffMillis = initialBackoffMillis;
+	}
+
+	public void setMaxBackoffMillis(long maxBackoffMillis) {
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public void setReadTimeoutMillis(int readTimeoutMillis) {
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	/**
+	 * Number of bytes successfully posted, after compression
+	 */
+	public long getSentBytes() {
+		return this.sentBytes.get();
+	}
+
+	public long getRetries() {
+		return this.retries.get();
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.codec.SpanEncoder;
+
+/**
+ * {@link SpanEncoder} decorator recording the number of bytes the delegate writes in a
+ * {@link SpanReporterMetrics}. Hand it to {@link HttpSpanSender} or
+ * {@link AmqpSpanSender} in place of their encoder.
+ *
+ * @since 1.0.6
+ */
+public class InstrumentedSpanEncoder implements SpanEncoder {
+
+	private final SpanEncoder delegate;
+	private final SpanReporterMetrics metrics;
+
+	public InstrumentedSpanEncoder(SpanEncoder delegate, SpanReporterMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void encode(List<Span> spans, OutputStream out) throws IOException {
+		CountingOutputStream counting = new CountingOutputStream(out);
+		try {
+			this.delegate.encode(spans, counting);
+		}
+		finally {
+			this.metrics.recordEncoded(counting.count);
+		}
+	}
+
+	@Override
+	public String getMediaType() {
+		return this.delegate.getMediaType();
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+
+		/**
+		 * The encoders don't own the target stream, leave it open
+		 */
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
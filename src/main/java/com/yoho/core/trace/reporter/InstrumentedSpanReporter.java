@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanReporter;
+
+/**
+ * {@link SpanReporter} decorator counting the reported spans and timing how long the
+ * delegate takes on the application thread. Exceptions of the delegate are counted and
+ * rethrown. See {@link SpanReporterMetrics} for the full pipeline.
+ *
+ * @since 1.0.6
+ */
+public class InstrumentedSpanReporter implements SpanReporter, Closeable {
+
+	private final SpanReporter delegate;
+	private final SpanReporterMetrics metrics;
+
+	public InstrumentedSpanReporter(SpanReporter delegate, SpanReporterMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void report(Span span) {
+		long start = System.nanoTime();
+		try {
+			this.delegate.report(span);
+		}
+		catch (RuntimeException | Error e) {
+			this.metrics.recordReportError();
+			throw e;
+		}
+		this.metrics.recordReported(System.nanoTime() - start);
+	}
+
+	/**
+	 * Closes the delegate if it is {@link Closeable}
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.delegate instanceof Closeable) {
+			((Closeable) this.delegate).close();
+		}
+	}
+
+	public SpanReporterMetrics getMetrics() {
+		return this.metrics;
+	}
+}
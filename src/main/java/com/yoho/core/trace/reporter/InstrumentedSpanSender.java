@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.util.List;
+
+import com.yoho.core.trace.Span;
+
+/**
+ * {@link SpanSender} decorator recording sent batches and spans and the export latency
+ * of every batch in a {@link SpanReporterMetrics}. Spans of a batch the delegate fails
+ * on are counted as {@link SpanDropReason#SEND_FAILED} and the exception is rethrown.
+ *
+ * @since 1.0.6
+ */
+public class InstrumentedSpanSender implements SpanSender {
+
+	private final SpanSender delegate;
+	private final SpanReporterMetrics metrics;
+
+	public InstrumentedSpanSender(SpanSender delegate, SpanReporterMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void send(List<Span> spans) {
+		long start = System.nanoTime();
+		try {
+			this.delegate.send(spans);
+		}
+		catch (RuntimeException | Error e) {
+			this.metrics.recordSendFailed(spans.size(), System.nanoTime() - start);
+			throw e;
+		}
+		this.metrics.recordSent(spans.size(), System.nanoTime() - start);
+	}
+}
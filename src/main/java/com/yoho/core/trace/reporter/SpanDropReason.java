@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+/**
+ * Why a finished span never reached its destination, see {@link SpanReporterMetrics}
+ *
+ * @since 1.0.6
+ */
+public enum SpanDropReason {
+
+	/**
+	 * The queue of the reporter was full
+	 */
+	QUEUE_FULL,
+
+	/**
+	 * The span was reported after the reporter was closed
+	 */
+	CLOSED,
+
+	/**
+	 * The {@link SpanSender} threw an exception for the batch holding the span
+	 */
+	SEND_FAILED,
+
+	/**
+	 * The span was spooled to disk and evicted to stay within the disk budget
+	 */
+	SPOOL_EVICTED,
+
+	/**
+	 * The span could neither be delivered nor spooled
+	 */
+	SPOOL_FAILED
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+/**
+ * Export priority of a finished span, most valuable first. Each lane gets its own
+ * queue in {@link AsyncBatchingSpanReporter}, so when the reporter is overloaded the
+ * spans of the {@link #LOCAL_COMPONENT} and {@link #DEFAULT} lanes are dropped first.
+ *
+ * @since 1.0.6
+ * @see SpanPrioritizer
+ */
+public enum SpanLane {
+
+	/**
+	 * Spans of failed requests
+	 */
+	ERROR,
+
+	/**
+	 * Spans that took longer than the slow threshold
+	 */
+	SLOW,
+
+	/**
+	 * Spans without a parent - the entry point of a trace
+	 */
+	ROOT,
+
+	/**
+	 * Fast, successful child spans, like remote calls
+	 */
+	DEFAULT,
+
+	/**
+	 * Fast, successful local component spans, tagged with
+	 * {@link com.yoho.core.trace.Span#SPAN_LOCAL_COMPONENT_TAG_NAME}
+	 */
+	LOCAL_COMPONENT
+}
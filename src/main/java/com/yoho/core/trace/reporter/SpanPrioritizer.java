@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.TagKey;
+import com.yoho.core.trace.TraceKeys;
+
+/**
+ * Assigns finished spans to a {@link SpanLane}. A span is an {@link SpanLane#ERROR}
+ * span if it carries a 4xx or 5xx status code tag (see
+ * {@link com.yoho.core.trace.instrument.web.TraceInterceptor#addResponseTags}),
+ * a {@link SpanLane#SLOW} span if it took at least {@code slowThresholdMillis} and a
+ * {@link SpanLane#ROOT} span if it has no parents. Other spans tagged as a local
+ * component go to the lowest lane, {@link SpanLane#LOCAL_COMPONENT}, below remote and
+ * RPC children. Classification does a constant amount of work per span.
+ *
+ * @since 1.0.6
+ */
+public class SpanPrioritizer {
+
+	public static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 1000;
+
+	private final TagKey statusCodeKey;
+	private final long slowThresholdMillis;
+
+	public SpanPrioritizer(TraceKeys traceKeys) {
+		this(traceKeys, DEFAULT_SLOW_THRESHOLD_MILLIS);
+	}
+
+	public SpanPrioritizer(TraceKeys traceKeys, long slowThresholdMillis) {
+		this.statusCodeKey = TagKey.of(traceKeys.getHttp().getStatusCode());
+		this.slowThresholdMillis = slowThresholdMillis;
+	}
+
+	public SpanLane laneOf(Span span) {
+		if (isErrorStatus(span.getTag(this.statusCodeKey))) {
+			return SpanLane.ERROR;
+		}
+		if (span.getAccumulatedMillis() >= this.slowThresholdMillis) {
+			return SpanLane.SLOW;
+		}
+		if (span.getParentCount() == 0) {
+			return SpanLane.ROOT;
+		}
+		if (span.getTag(TagKey.LOCAL_COMPONENT) != null) {
+			return SpanLane.LOCAL_COMPONENT;
+		}
+		return SpanLane.DEFAULT;
+	}
+
+	private static boolean isErrorStatus(String statusCode) {
+		if (statusCode == null || statusCode.isEmpty()) {
+			return false;
+		}
+		char first = statusCode.charAt(0);
+		return first == '4' || first == '5';
+	}
+}
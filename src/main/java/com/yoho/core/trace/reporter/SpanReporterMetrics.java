@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.yoho.core.trace.util.LatencyHistogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Self telemetry of a span reporting pipeline, exposed as an MBean named
+ * {@code com.yoho.core.trace:type=SpanReporter,name=<name>}.
+ * <p>
+ * The counters are fed by the decorators {@link InstrumentedSpanReporter},
+ * {@link InstrumentedSpanSender} and {@link InstrumentedSpanEncoder} and by
+ * {@link AsyncBatchingSpanReporter} / {@link DiskSpoolingSpanReporter} for the spans
+ * they drop. Share one instance between the stages of a pipeline:
+ * <pre>{@code
+ * <bean id="trace.reporterMetrics" class="com.yoho.core.trace.reporter.SpanReporterMetrics"
+ *       init-method="register" destroy-method="unregister">
+ *     <constructor-arg value="zipkin"/>
+ * </bean>
+ * <bean id="trace.spanReporter" class="com.yoho.core.trace.reporter.InstrumentedSpanReporter">
+ *     <constructor-arg>
+ *         <bean class="com.yoho.core.trace.reporter.AsyncBatchingSpanReporter" destroy-method="close">
+ *             <constructor-arg>
+ *                 <bean class="com.yoho.core.trace.reporter.InstrumentedSpanSender">
+ *                     <constructor-arg><bean class="com.yoho.core.trace.reporter.HttpSpanSender">...</bean></constructor-arg>
+ *                     <constructor-arg ref="trace.reporterMetrics"/>
+ *                 </bean>
+ *             </constructor-arg>
+ *             <property name="metrics" ref="trace.reporterMetrics"/>
+ *         </bean>
+ *     </constructor-arg>
+ *     <constructor-arg ref="trace.reporterMetrics"/>
+ * </bean>
+ * }</pre>
+ * Report latency is the time {@link com.yoho.core.trace.SpanReporter#report} takes on
+ * the application thread, export latency the time a {@link SpanSender} takes for a
+ * batch, including its retries.
+ *
+ * @since 1.0.6
+ */
+public class SpanReporterMetrics implements SpanReporterMetricsMBean {
+
+	private static final Log log = LogFactory.getLog(SpanReporterMetrics.class);
+
+	private static final SpanDropReason[] REASONS = SpanDropReason.values();
+
+	private final String name;
+	private ObjectName objectName;
+
+	private final AtomicLong reportedSpans = new AtomicLong();
+	private final AtomicLong reportErrors = new AtomicLong();
+	private final AtomicLongArray droppedSpans = new AtomicLongArray(REASONS.length);
+	private final AtomicLong sentBatches = new AtomicLong();
+	private final AtomicLong sentSpans = new AtomicLong();
+	private final AtomicLong encodedBytes = new AtomicLong();
+	private final LatencyHistogram reportLatency = new LatencyHistogram();
+	private final LatencyHistogram exportLatency = new LatencyHistogram();
+
+	public SpanReporterMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Registers the MBean with the platform MBean server
+	 */
+	public synchronized void register() throws JMException {
+		if (this.objectName != null) {
+			return;
+		}
+		ObjectName objectName = new ObjectName("com.yoho.core.trace:type=SpanReporter,name="
+				+ ObjectName.quote(this.name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		this.objectName = objectName;
+	}
+
+	public synchronized void unregister() {
+		if (this.objectName == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(this.objectName);
+		}
+		catch (JMException e) {
+			log.warn("Can't unregister " + this.objectName, e);
+		}
+		this.objectName = null;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public void recordReported(long nanos) {
+		this.reportedSpans.incrementAndGet();
+		this.reportLatency.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordReportError() {
+		this.reportErrors.incrementAndGet();
+	}
+
+	public void recordDropped(SpanDropReason reason, long spans) {
+		this.droppedSpans.addAndGet(reason.ordinal(), spans);
+	}
+
+	public void recordSent(int spans, long nanos) {
+		this.sentBatches.incrementAndGet();
+		this.sentSpans.addAndGet(spans);
+		this.exportLatency.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordSendFailed(int spans, long nanos) {
+		recordDropped(SpanDropReason.SEND_FAILED, spans);
+		this.exportLatency.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordEncoded(long bytes) {
+		this.encodedBytes.addAndGet(bytes);
+	}
+
+	@Override
+	public long getReportedSpans() {
+		return this.reportedSpans.get();
+	}
+
+	/**
+	 * Number of {@link com.yoho.core.trace.SpanReporter#report} calls that threw
+	 */
+	@Override
+	public long getReportErrors() {
+		return this.reportErrors.get();
+	}
+
+	@Override
+	public long getDroppedSpans() {
+		long dropped = 0;
+		for (int i = 0; i < REASONS.length; i++) {
+			dropped += this.droppedSpans.get(i);
+		}
+		return dropped;
+	}
+
+	public long getDroppedSpans(SpanDropReason reason) {
+		return this.droppedSpans.get(reason.ordinal());
+	}
+
+	@Override
+	public long getDroppedQueueFull() {
+		return getDroppedSpans(SpanDropReason.QUEUE_FULL);
+	}
+
+	@Override
+	public long getDroppedAfterClose() {
+		return getDroppedSpans(SpanDropReason.CLOSED);
+	}
+
+	@Override
+	public long getDroppedSendFailed() {
+		return getDroppedSpans(SpanDropReason.SEND_FAILED);
+	}
+
+	@Override
+	public long getDroppedSpoolEvicted() {
+		return getDroppedSpans(SpanDropReason.SPOOL_EVICTED);
+	}
+
+	@Override
+	public long getDroppedSpoolFailed() {
+		return getDroppedSpans(SpanDropReason.SPOOL_FAILED);
+	}
+
+	@Override
+	public long getSentBatches() {
+		return this.sentBatches.get();
+	}
+
+	@Override
+	public long getSentSpans() {
+		return this.sentSpans.get();
+	}
+
+	/**
+	 * Number of bytes written by the encoders, before any compression
+	 */
+	@Override
+	public long getEncodedBytes() {
+		return this.encodedBytes.get();
+	}
+
+	@Override
+	public double getReportLatencyMeanMicros() {
+		return this.reportLatency.getMeanMicros();
+	}
+
+	@Override
+	public long getReportLatencyP99Micros() {
+		return this.reportLatency.getPercentileMicros(99);
+	}
+
+	@Override
+	public long getReportLatencyMaxMicros() {
+		return this.reportLatency.getMaxMicros();
+	}
+
+	@Override
+	public long getExportLatencyCount() {
+		return this.exportLatency.getCount();
+	}
+
+	@Override
+	public double getExportLatencyMeanMicros() {
+		return this.exportLatency.getMeanMicros();
+	}
+
+	@Override
+	public long getExportLatencyP50Micros() {
+		return this.exportLatency.getPercentileMicros(50);
+	}
+
+	@Override
+	public long getExportLatencyP99Micros() {
+		return this.exportLatency.getPercentileMicros(99);
+	}
+
+	@Override
+	public long getExportLatencyP999Micros() {
+		return this.exportLatency.getPercentileMicros(99.9);
+	}
+
+	@Override
+	public long getExportLatencyMaxMicros() {
+		return this.exportLatency.getMaxMicros();
+	}
+
+	/**
+	 * Starts a new measuring period for both latency histograms, counters are kept
+	 */
+	@Override
+	public void resetLatencies() {
+		this.reportLatency.reset();
+		this.exportLatency.reset();
+	}
+}
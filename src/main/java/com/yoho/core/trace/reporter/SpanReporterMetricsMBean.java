@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+/**
+ * JMX view of {@link SpanReporterMetrics}
+ *
+ * @since 1.0.6
+ */
+public interface SpanReporterMetricsMBean {
+
+	long getReportedSpans();
+
+	long getReportErrors();
+
+	long getDroppedSpans();
+
+	long getDroppedQueueFull();
+
+	long getDroppedAfterClose();
+
+	long getDroppedSendFailed();
+
+	long getDroppedSpoolEvicted();
+
+	long getDroppedSpoolFailed();
+
+	long getSentBatches();
+
+	long getSentSpans();
+
+	long getEncodedBytes();
+
+	double getReportLatencyMeanMicros();
+
+	long getReportLatencyP99Micros();
+
+	long getReportLatencyMaxMicros();
+
+	long getExportLatencyCount();
+
+	double getExportLatencyMeanMicros();
+
+	long getExportLatencyP50Micros();
+
+	long getExportLatencyP99Micros();
+
+	long getExportLatencyP999Micros();
+
+	long getExportLatencyMaxMicros();
+
+	void resetLatencies();
+}
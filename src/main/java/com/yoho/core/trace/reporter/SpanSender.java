@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.util.List;
+
+import com.yoho.core.trace.Span;
+
+/**
+ * Contract for shipping a batch of finished spans out of process. Unlike
+ * {@link com.yoho.core.trace.SpanReporter} a sender is always invoked from a
+ * reporter thread, never from the request thread, so it is allowed to block on I/O.
+ *
+ * @since 1.0.6
+ * @see AsyncBatchingSpanReporter
+ */
+public interface SpanSender {
+
+	/**
+	 * Sends the given spans. The list is only valid for the duration of the call -
+	 * implementations must copy it if they need to hold on to it.
+	 */
+	void send(List<Span> spans);
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.yoho.core.trace.Sampler;
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanReporter;
+import com.yoho.core.trace.util.MpscRingBuffer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * One destination of a {@link CompositeSpanReporter}: a {@link SpanReporter} with a
+ * bounded queue and a thread of its own, so it can't slow down the other sinks.
+ * <p>
+ * An optional {@link Sampler} selects the spans this sink receives, for example a
+ * {@link com.yoho.core.trace.sampler.PercentageBasedSampler} to keep a remote collector
+ * at a fraction of the traffic that a local aggregator sees. A sink is unhealthy after
+ * {@code unhealthyThreshold} consecutive failures of its reporter and healthy again
+ * after the first span it delivers.
+ *
+ * @since 1.0.6
+ */
+public class SpanSink {
+
+	private static final Log log = LogFactory.getLog(SpanSink.class);
+
+	public static final int DEFAULT_QUEUE_SIZE = 4096;
+	public static final int DEFAULT_UNHEALTHY_THRESHOLD = 3;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final String name;
+	private final SpanReporter reporter;
+	private Sampler sampler;
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+	private int unhealthyThreshold = DEFAULT_UNHEALTHY_THRESHOLD;
+
+	private MpscRingBuffer<Span> queue;
+	private Thread drainer;
+	private volatile boolean closed = false;
+	private volatile boolean drainerParked = false;
+	private volatile int consecutiveFailures = 0;
+
+	private final AtomicLong queuedSpans = new AtomicLong();
+	private final AtomicLong sampledOutSpans = new AtomicLong();
+	private final AtomicLong droppedSpans = new AtomicLong();
+	private final AtomicLong deliveredSpans = new AtomicLong();
+	private final AtomicLong failedSpans = new AtomicLong();
+
+	public SpanSink(String name, SpanReporter reporter) {
+		this.name = name;
+		this.reporter = reporter;
+	}
+
+	/**
+	 * Starts the drain thread, called by {@link CompositeSpanReporter}
+	 */
+	synchronized void start() {
+		if (this.drainer != null) {
+			throw new IllegalStateException("Sink " + this.name + " is already started");
+		}
+		this.queue = new MpscRingBuffer<>(this.queueSize);
+		this.drainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "trace-span-sink-" + this.name);
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+
+	/**
+	 * Never blocks, a span that doesn't fit into the queue is dropped
+	 */
+	void offer(Span span) {
+		if (this.closed) {
+			this.droppedSpans.incrementAndGet();
+			return;
+		}
+		if (this.sampler != null && !this.sampler.isSampled(span)) {
+			this.sampledOutSpans.incrementAndGet();
+			return;
+		}
+		if (!this.queue.offer(span)) {
+			this.droppedSpans.incrementAndGet();
+			return;
+		}
+		this.queuedSpans.incrementAndGet();
+		if (this.drainerParked) {
+			LockSupport.unpark(this.drainer);
+		}
+	}
+
+	private void drain() {
+		while (!this.closed || !this.queue.isEmpty()) {
+			Span span = this.queue.poll();
+			if (span == null) {
+				this.drainerParked = true;
+				// re-check after publishing the flag, a producer may have missed it
+				if (this.queue.isEmpty() && !this.closed) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				this.drainerParked = false;
+				continue;
+			}
+			try {
+				this.reporter.report(span);
+				this.deliveredSpans.incrementAndGet();
+				this.consecutiveFailures = 0;
+			}
+			catch (Throwable e) {
+				this.failedSpans.incrementAndGet();
+				int failures = ++this.consecutiveFailures;
+				if (failures == this.unhealthyThreshold) {
+					log.warn("Span sink " + this.name + " is unhealthy after " + failures
+							+ " consecutive failures", e);
+				}
+				else if (log.isDebugEnabled()) {
+					log.debug("Span sink " + this.name + " failed to report " + span, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting spans, the drain thread delivers what is queued and ends
+	 */
+	void stop() {
+		this.closed = true;
+		if (this.drainer != null) {
+			LockSupport.unpark(this.drainer);
+		}
+	}
+
+	void awaitTermination(long timeoutMillis) {
+		if (this.drainer == null) {
+			return;
+		}
+		try {
+			this.drainer.join(timeoutMillis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.drainer.isAlive()) {
+			log.warn("Span sink " + this.name + " did not flush within " + timeoutMillis
+					+ " ms, " + this.queue.size() + " spans may be lost");
+		}
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public SpanReporter getReporter() {
+		return this.reporter;
+	}
+
+	/**
+	 * Spans this sink receives, all if not set
+	 */
+	public void setSampler(Sampler sampler) {
+		this.sampler = sampler;
+	}
+
+	/**
+	 * Capacity of the queue, rounded up to a power of two. Defaults to 4096.
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Number of consecutive failures after which the sink counts as unhealthy.
+	 * Defaults to 3.
+	 */
+	public void setUnhealthyThreshold(int unhealthyThreshold) {
+		this.unhealthyThreshold = unhealthyThreshold;
+	}
+
+	public boolean isHealthy() {
+		return this.consecutiveFailures < this.unhealthyThreshold;
+	}
+
+	public int getConsecutiveFailures() {
+		return this.consecutiveFailures;
+	}
+
+	public int getQueueDepth() {
+		return this.queue == null ? 0 : this.queue.size();
+	}
+
+	public long getQueuedSpans() {
+		return this.queuedSpans.get();
+	}
+
+	/**
+	 * Number of spans rejected by the sampler of this sink
+	 */
+	public long getSampledOutSpans() {
+		return this.sampledOutSpans.get();
+	}
+
+	/**
+	 * Number of spans dropped because the queue was full or the sink was closed
+	 */
+	public long getDroppedSpans() {
+		return this.droppedSpans.get();
+	}
+
+	public long getDeliveredSpans() {
+		return this.deliveredSpans.get();
+	}
+
+	/**
+	 * Number of spans for which the reporter threw an exception
+	 */
+	public long getFailedSpans() {
+		return this.failedSpans.get();
+	}
+
+	@Override
+	public String toString() {
+		return "SpanSink{name=" + this.name + ", healthy=" + isHealthy() + ", queueDepth="
+				+ getQueueDepth() + ", dropped=" + getDroppedSpans() + "}";
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed size, memory-mapped, append-only file holding encoded spans.
+ * <p>
+ * Layout: a header of {@code [magic][read offset]} followed by records of
+ * {@code [length][crc32][payload]}. The length is written last, so a record whose
+ * length is zero, points past the end of the file or whose checksum does not match
+ * was torn by a crash and marks the end of the valid data.
+ * <p>
+ * Not thread safe - {@link DiskSpoolingSpanReporter} guards all access.
+ *
+ * @since 1.0.6
+ */
+final class SpoolSegment {
+
+	static final int MAGIC = 0x59545350;
+	static final int HEADER_SIZE = 8;
+	static final int RECORD_HEADER_SIZE = 8;
+	private static final int READ_OFFSET_POSITION = 4;
+
+	private final File file;
+	private final MappedByteBuffer buffer;
+	private final CRC32 crc = new CRC32();
+	private int writePosition;
+	private int readPosition;
+	private int pendingRecords;
+
+	private SpoolSegment(File file, MappedByteBuffer buffer, int readPosition,
+			int writePosition, int pendingRecords) {
+		this.file = file;
+		this.buffer = buffer;
+		this.readPosition = readPosition;
+		this.writePosition = writePosition;
+		this.pendingRecords = pendingRecords;
+	}
+
+	static SpoolSegment create(File file, int size) throws IOException {
+		MappedByteBuffer buffer = map(file, size);
+		buffer.putInt(READ_OFFSET_POSITION, HEADER_SIZE);
+		buffer.putInt(0, MAGIC);
+		return new SpoolSegment(file, buffer, HEADER_SIZE, HEADER_SIZE, 0);
+	}
+
+	/**
+	 * Maps an existing segment and finds the end of its valid data. Anything after a
+	 * torn record is zeroed so that later appends start from a clean state.
+	 *
+	 * @return the recovered segment or {@code null} if the file is not a spool segment
+	 */
+	static SpoolSegment recover(File file) throws IOException {
+		long length = file.length();
+		if (length < HEADER_SIZE + RECORD_HEADER_SIZE || length > Integer.MAX_VALUE) {
+			return null;
+		}
+		MappedByteBuffer buffer = map(file, (int) length);
+		if (buffer.getInt(0) != MAGIC) {
+			return null;
+		}
+		int readPosition = buffer.getInt(READ_OFFSET_POSITION);
+		CRC32 crc = new CRC32();
+		int position = HEADER_SIZE;
+		int pending = 0;
+		boolean readPositionValid = false;
+		while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+			int recordLength = buffer.getInt(position);
+			if (recordLength <= 0
+					|| recordLength > buffer.capacity() - position - RECORD_HEADER_SIZE
+					|| checksum(crc, buffer, position, recordLength) != buffer.getInt(position + 4)) {
+				break;
+			}
+			if (position == readPosition) {
+				readPositionValid = true;
+			}
+			if (readPositionValid) {
+				pending++;
+			}
+			position += RECORD_HEADER_SIZE + recordLength;
+		}
+		if (!readPositionValid) {
+			// unless everything was read, an offset that matches no record boundary is
+			// corrupted - replay the whole segment, spans may be delivered twice but not lost
+			if (readPosition != position) {
+				readPosition = HEADER_SIZE;
+				pending = countRecords(buffer, position);
+			}
+			buffer.putInt(READ_OFFSET_POSITION, readPosition);
+		}
+		for (int i = position; i < buffer.capacity(); i++) {
+			buffer.put(i, (byte) 0);
+		}
+		return new SpoolSegment(file, buffer, readPosition, position, pending);
+	}
+
+	private static int countRecords(ByteBuffer buffer, int end) {
+		int count = 0;
+		for (int position = HEADER_SIZE; position < end; count++) {
+			position += RECORD_HEADER_SIZE + buffer.getInt(position);
+		}
+		return count;
+	}
+
+	private static MappedByteBuffer map(File file, int size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() != size) {
+				raf.setLength(size);
+			}
+			// the mapping stays valid after the channel gets closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static int checksum(CRC32 crc, ByteBuffer buffer, int recordPosition, int length) {
+		ByteBuffer payload = buffer.duplicate();
+		payload.limit(recordPosition + RECORD_HEADER_SIZE + length);
+		payload.position(recordPosition + RECORD_HEADER_SIZE);
+		crc.reset();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Appends the remaining bytes of the payload.
+	 *
+	 * @return {@code false} if there is not enough room left in this segment
+	 */
+	boolean append(ByteBuffer payload) {
+		int length = payload.remaining();
+		if (!hasRoomFor(length)) {
+			return false;
+		}
+		int recordPosition = this.writePosition;
+		this.buffer.position(recordPosition + RECORD_HEADER_SIZE);
+		this.buffer.put(payload);
+		this.buffer.putInt(recordPosition + 4, checksum(this.crc, this.buffer, recordPosition, length));
+		// length goes last - it commits the record
+		this.buffer.putInt(recordPosition, length);
+		this.writePosition = recordPosition + RECORD_HEADER_SIZE + length;
+		this.pendingRecords++;
+		return true;
+	}
+
+	boolean hasRoomFor(int payloadLength) {
+		return payloadLength <= this.buffer.capacity() - this.writePosition - RECORD_HEADER_SIZE;
+	}
+
+	/**
+	 * Copies the payload of the oldest unread record into the target buffer, which
+	 * gets cleared first and flipped afterwards.
+	 *
+	 * @return {@code false} if every record has already been read
+	 */
+	boolean readNext(ByteBuffer target) {
+		if (this.readPosition >= this.writePosition) {
+			return false;
+		}
+		int length = this.buffer.getInt(this.readPosition);
+		ByteBuffer payload = this.buffer.duplicate();
+		payload.limit(this.readPosition + RECORD_HEADER_SIZE + length);
+		payload.position(this.readPosition + RECORD_HEADER_SIZE);
+		target.clear();
+		target.put(payload);
+		target.flip();
+		return true;
+	}
+
+	/**
+	 * Marks the record returned by the last {@link #readNext(ByteBuffer)} as delivered.
+	 */
+	void advance() {
+		this.readPosition += RECORD_HEADER_SIZE + this.buffer.getInt(this.readPosition);
+		this.buffer.putInt(READ_OFFSET_POSITION, this.readPosition);
+		this.pendingRecords--;
+	}
+
+	int getReadPosition() {
+		return this.readPosition;
+	}
+
+	int getPendingRecords() {
+		return this.pendingRecords;
+	}
+
+	int getSize() {
+		return this.buffer.capacity();
+	}
+
+	boolean isFullyRead() {
+		return this.readPosition >= this.writePosition;
+	}
+
+	File getFile() {
+		return this.file;
+	}
+
+	void force() {
+		this.buffer.force();
+	}
+
+	void delete() {
+		if (!this.file.delete() && this.file.exists()) {
+			this.file.deleteOnExit();
+		}
+	}
+}
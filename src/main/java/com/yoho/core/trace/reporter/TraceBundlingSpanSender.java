@@ -0,0 +1,370 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.reporter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.yoho.core.trace.Span;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link SpanSender} that holds spans back for a short window and groups them by trace
+ * before passing them on, so that the spans of one request - the server span, its
+ * RestTemplate and Hystrix children - leave the process next to each other in one
+ * payload. {@link com.yoho.core.trace.codec.CompactSpanCodec} writes the trace id of
+ * such a run only once and shares its string dictionary across it.
+ * <p>
+ * A trace is flushed when its local root finishes, when no span of it arrived for
+ * {@code windowMillis}, or at the latest
+ * {@code maxHoldMillis} after its first span, so a root that never closes can't hold
+ * memory. At most {@code maxTraces} traces are held, the oldest one is flushed when
+ * another trace arrives; a trace holding {@code maxSpansPerTrace} spans is flushed as
+ * well. Flushed traces are packed into batches of up to {@code maxBatchSize} spans.
+ * <p>
+ * The local root is a span without parents, or the child of a remote span of the same
+ * bundle. The server instrumentation reports the remote span before the local root it
+ * parents, so holding the remote span back until its child arrives flushes the request
+ * as one bundle. If the remote span isn't reported the window flushes the trace.
+ * <p>
+ * Spans are handed to the delegate from the thread calling {@link #send(List)} or from
+ * a background thread checking the windows, so failures of the delegate can't be
+ * reported to the caller - they are logged and counted in {@link #getFailedSpans()}.
+ * The delegate may be called from both threads at once and has to be thread safe, as
+ * {@link HttpSpanSender} and {@link AmqpSpanSender} are.
+ * Place it between an {@link AsyncBatchingSpanReporter} and the transport:
+ * <pre>{@code
+ * new AsyncBatchingSpanReporter(new TraceBundlingSpanSender(new AmqpSpanSender(...)))
+ * }</pre>
+ *
+ * @since 1.0.6
+ */
+public class TraceBundlingSpanSender implements SpanSender, Closeable {
+
+	private static final Log log = LogFactory.getLog(TraceBundlingSpanSender.class);
+
+	public static final long DEFAULT_WINDOW_MILLIS = 200;
+	public static final long DEFAULT_MAX_HOLD_MILLIS = 2000;
+	public static final int DEFAULT_MAX_TRACES = 1024;
+	public static final int DEFAULT_MAX_SPANS_PER_TRACE = 256;
+	public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+	private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+	private final SpanSender delegate;
+	private final long windowNanos;
+	private final long maxHoldNanos;
+	private final int maxTraces;
+	private final int maxSpansPerTrace;
+	private final int maxBatchSize;
+	private final Thread flusher;
+
+	/** open traces in order of their first span, guarded by itself */
+	private final LinkedHashMap<TraceId, Bundle> bundles = new LinkedHashMap<>();
+	private int bundledSpans = 0;
+
+	private volatile boolean closed = false;
+
+	private final AtomicLong sentSpans = new AtomicLong();
+	private final AtomicLong sentBatches = new AtomicLong();
+	private final AtomicLong flushedTraces = new AtomicLong();
+	private final AtomicLong evictedTraces = new AtomicLong();
+	private final AtomicLong failedSpans = new AtomicLong();
+
+	public TraceBundlingSpanSender(SpanSender delegate) {
+		this(delegate, DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_HOLD_MILLIS, DEFAULT_MAX_TRACES,
+				DEFAULT_MAX_SPANS_PER_TRACE, DEFAULT_MAX_BATCH_SIZE);
+	}
+
+	public TraceBundlingSpanSender(SpanSender delegate, long windowMillis, long maxHoldMillis,
+			int maxTraces, int maxSpansPerTrace, int maxBatchSize) {
+		if (maxTraces < 1 || maxSpansPerTrace < 1 || maxBatchSize < 1) {
+			throw new IllegalArgumentException("Limits must be positive but were maxTraces=" + maxTraces
+					+ ", maxSpansPerTrace=" + maxSpansPerTrace + ", maxBatchSize=" + maxBatchSize);
+		}
+		this.delegate = delegate;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.maxHoldNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(windowMillis, maxHoldMillis));
+		this.maxTraces = maxTraces;
+		this.maxSpansPerTrace = maxSpansPerTrace;
+		this.maxBatchSize = maxBatchSize;
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushExpired();
+			}
+		}, "trace-span-bundler");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	@Override
+	public void send(List<Span> spans) {
+		if (this.closed) {
+			forward(new ArrayList<>(spans));
+			return;
+		}
+		List<Span> ready = null;
+		long now = System.nanoTime();
+		synchronized (this.bundles) {
+			for (int i = 0, size = spans.size(); i < size; i++) {
+				Span span = spans.get(i);
+				TraceId traceId = new TraceId(span.getTraceIdHigh(), span.getTraceId());
+				Bundle bundle = this.bundles.get(traceId);
+				if (bundle == null) {
+					if (this.bundles.size() >= this.maxTraces) {
+						ready = takeNext(this.bundles.values().iterator(), ready);
+						this.evictedTraces.incrementAndGet();
+					}
+					bundle = new Bundle(now);
+					this.bundles.put(traceId, bundle);
+				}
+				bundle.spans.add(span);
+				bundle.lastUpdate = now;
+				this.bundledSpans++;
+				if (bundle.completedBy(span) || bundle.spans.size() >= this.maxSpansPerTrace) {
+					ready = append(ready, this.bundles.remove(traceId));
+				}
+			}
+		}
+		if (ready != null) {
+			forward(ready);
+		}
+	}
+
+	private void flushExpired() {
+		long interval = Math.max(1, this.windowNanos / 2);
+		while (!this.closed) {
+			LockSupport.parkNanos(this, interval);
+			List<Span> ready = null;
+			long now = System.nanoTime();
+			synchronized (this.bundles) {
+				for (Iterator<Bundle> it = this.bundles.values().iterator(); it.hasNext();) {
+					Bundle bundle = it.next();
+					if (now - bundle.lastUpdate >= this.windowNanos
+							|| now - bundle.firstSeen >= this.maxHoldNanos) {
+						it.remove();
+						ready = append(ready, bundle);
+					}
+				}
+			}
+			if (ready != null) {
+				forward(ready);
+			}
+		}
+	}
+
+	/**
+	 * Removes the next bundle of the iterator and appends its spans
+	 */
+	private List<Span> takeNext(Iterator<Bundle> it, List<Span> ready) {
+		Bundle bundle = it.next();
+		it.remove();
+		return append(ready, bundle);
+	}
+
+	private List<Span> append(List<Span> ready, Bundle bundle) {
+		if (ready == null) {
+			ready = new ArrayList<>(bundle.spans.size());
+		}
+		ready.addAll(bundle.spans);
+		this.bundledSpans -= bundle.spans.size();
+		this.flushedTraces.incrementAndGet();
+		return ready;
+	}
+
+	/**
+	 * Hands the spans to the delegate in batches of at most {@code maxBatchSize}, spans
+	 * of a trace stay adjacent but a large trace may straddle two batches
+	 */
+	private void forward(List<Span> spans) {
+		int size = spans.size();
+		for (int from = 0; from < size; from += this.maxBatchSize) {
+			List<Span> batch = spans.subList(from, Math.min(size, from + this.maxBatchSize));
+			try {
+				this.delegate.send(batch);
+				this.sentSpans.addAndGet(batch.size());
+				this.sentBatches.incrementAndGet();
+			}
+			catch (Throwable e) {
+				this.failedSpans.addAndGet(batch.size());
+				log.warn("Failed to send " + batch.size() + " spans", e);
+			}
+		}
+	}
+
+	/**
+	 * Flushes all held traces and stops the background thread. Spans sent afterwards are
+	 * passed on without bundling.
+	 */
+	@Override
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		LockSupport.unpark(this.flusher);
+		try {
+			this.flusher.join(CLOSE_TIMEOUT_MILLIS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Span> ready = null;
+		synchronized (this.bundles) {
+			for (Iterator<Bundle> it = this.bundles.values().iterator(); it.hasNext();) {
+				ready = takeNext(it, ready);
+			}
+		}
+		if (ready != null) {
+			forward(ready);
+		}
+	}
+
+	/**
+	 * Number of traces currently held back
+	 */
+	public int getOpenTraces() {
+		synchronized (this.bundles) {
+			return this.bundles.size();
+		}
+	}
+
+	/**
+	 * Number of spans currently held back
+	 */
+	public int getBundledSpans() {
+		synchronized (this.bundles) {
+			return this.bundledSpans;
+		}
+	}
+
+	public long getSentSpans() {
+		return this.sentSpans.get();
+	}
+
+	public long getSentBatches() {
+		return this.sentBatches.get();
+	}
+
+	/**
+	 * Number of traces handed to the delegate, a trace whose spans arrive after it was
+	 * flushed counts more than once
+	 */
+	public long getFlushedTraces() {
+		return this.flushedTraces.get();
+	}
+
+	/**
+	 * Number of traces flushed early because {@code maxTraces} traces were held
+	 */
+	public long getEvictedTraces() {
+		return this.evictedTraces.get();
+	}
+
+	/**
+	 * Number of spans in batches for which the delegate threw an exception
+	 */
+	public long getFailedSpans() {
+		return this.failedSpans.get();
+	}
+
+	/**
+	 * Both halves of a trace id, 128-bit traces sharing the lower half are distinct
+	 */
+	private static final class TraceId {
+
+		final long high;
+		final long low;
+
+		TraceId(long high, long low) {
+			this.high = high;
+			this.low = low;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof TraceId)) {
+				return false;
+			}
+			TraceId that = (TraceId) o;
+			return this.high == that.high && this.low == that.low;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = this.high * 31 + this.low;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	private static final class Bundle {
+
+		final List<Span> spans = new ArrayList<>(8);
+		final long firstSeen;
+		long lastUpdate;
+		/** remote spans among the spans, the common bundle has none or one */
+		int remoteSpans;
+
+		Bundle(long firstSeen) {
+			this.firstSeen = firstSeen;
+			this.lastUpdate = firstSeen;
+		}
+
+		/**
+		 * Whether the span just added completes the local part of the trace: it is a
+		 * local root, or a remote span whose local root already arrived
+		 */
+		boolean completedBy(Span span) {
+			if (span.isRemote()) {
+				this.remoteSpans++;
+				return hasLocalChildOf(span.getSpanId());
+			}
+			return span.getParentCount() == 0 || hasRemote(span.getParentId(0));
+		}
+
+		private boolean hasRemote(long spanId) {
+			if (this.remoteSpans == 0) {
+				return false;
+			}
+			for (int i = 0, size = this.spans.size(); i < size; i++) {
+				Span span = this.spans.get(i);
+				if (span.isRemote() && span.getSpanId() == spanId) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean hasLocalChildOf(long spanId) {
+			for (int i = 0, size = this.spans.size(); i < size; i++) {
+				Span span = this.spans.get(i);
+				if (!span.isRemote() && span.getParentCount() > 0
+						&& span.getParentId(0) == spanId) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
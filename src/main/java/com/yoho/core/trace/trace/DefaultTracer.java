@@ -32,9 +32,18 @@ import java.util.concurrent.Callable;
  */
 public class DefaultTracer implements Tracer {
 
+	private static final long[] NO_PARENTS = new long[0];
+
+	/** Returned when the span already is current, there is nothing to restore */
+	private static final SpanInScope NOOP_SCOPE = new SpanInScope() {
+		@Override
+		public void close() {
+		}
+	};
+
 	private final Sampler defaultSampler;
 
-	private final Random random;
+	private final IdGenerator idGenerator;
 
 	private final SpanNamer spanNamer;
 
@@ -42,13 +51,57 @@ public class DefaultTracer implements Tracer {
 
 	private final SpanReporter spanReporter;
 
+	private final TraceClock clock;
+
+	private volatile SpanLimits spanLimits = new SpanLimits();
+
+	private volatile SpanMemoryBudget memoryBudget;
+
 	public DefaultTracer(Sampler defaultSampler, Random random, SpanNamer spanNamer,
 			SpanLogger spanLogger, SpanReporter spanReporter) {
+		this(defaultSampler, new RandomIdGenerator(random), spanNamer, spanLogger,
+				spanReporter);
+	}
+
+	public DefaultTracer(Sampler defaultSampler, IdGenerator idGenerator,
+			SpanNamer spanNamer, SpanLogger spanLogger, SpanReporter spanReporter) {
+		this(defaultSampler, idGenerator, spanNamer, spanLogger, spanReporter,
+				SystemTraceClock.INSTANCE);
+	}
+
+	/**
+	 * @param clock anchored anew for every local root span
+	 */
+	public DefaultTracer(Sampler defaultSampler, IdGenerator idGenerator,
+			SpanNamer spanNamer, SpanLogger spanLogger, SpanReporter spanReporter,
+			TraceClock clock) {
 		this.defaultSampler = defaultSampler;
-		this.random = random;
+		this.idGenerator = idGenerator;
 		this.spanNamer = spanNamer;
 		this.spanLogger = spanLogger;
 		this.spanReporter = spanReporter;
+		this.clock = clock;
+	}
+
+	/**
+	 * Caps the tags and logs of new exportable spans, the {@link SpanLimits} defaults
+	 * unless set. {@code null} leaves spans unlimited.
+	 */
+	public void setSpanLimits(SpanLimits spanLimits) {
+		this.spanLimits = spanLimits;
+	}
+
+	public SpanLimits getSpanLimits() {
+		return this.spanLimits;
+	}
+
+	/**
+	 * Accounts new exportable spans in the given budget. Spans started while the budget
+	 * is used up are not exportable. Not set unless configured, see
+	 * {@code spring-core-trace.xml} for the default setup.
+	 */
+	public void setMemoryBudget(SpanMemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
 	}
 
 	@Override
@@ -56,7 +109,8 @@ public class DefaultTracer implements Tracer {
 		if (parent == null) {
 			return createSpan(name);
 		}
-		return continueSpan(createChild(parent, name));
+		SpanStack stack = SpanContextHolder.current();
+		return activate(stack, createChild(stack, parent, name));
 	}
 
 	@Override
@@ -66,25 +120,31 @@ public class DefaultTracer implements Tracer {
 
 	@Override
 	public Span createSpan(String name, Sampler sampler) {
+		SpanStack stack = SpanContextHolder.current();
 		Span span;
-		if (isTracing()) {
-			span = createChild(getCurrentSpan(), name);
+		if (!stack.isEmpty()) {
+			span = createChild(stack, stack.peek(), name);
 		}
 		else {
 			long id = createId();
-			span = Span.builder().begin(System.currentTimeMillis()).name(name).traceId(id)
-					.spanId(id).build();
+			long idHigh = this.idGenerator.nextTraceIdHigh();
+			TraceClock clock = this.clock.anchor();
+			long begin = clock.currentTimeMicros();
 			if (sampler==null) {
 				sampler = this.defaultSampler;
 			}
-			if (!sampler.isSampled(span)) {
-				// Non-exportable so we keep the trace but not other data
-				span = Span.builder().begin(span.getBegin()).name(name).traceId(id)
-						.spanId(id).exportable(false).build();
+			// Non-exportable so we keep the trace but not other data. The sampler decides
+			// on this span, only a sampled trace pays for a second one.
+			span = new Span(clock, begin, name, idHigh, id, NO_PARENTS, id, false, false,
+					null, null);
+			SpanMemoryBudget budget = this.memoryBudget;
+			if (sampler.isSampled(span) && reserve(budget)) {
+				span = new Span(clock, begin, name, idHigh, id, NO_PARENTS, id, false, true,
+						null, null, this.spanLimits, budget);
 			}
 			this.spanLogger.logStartedSpan(null, span);
 		}
-		return continueSpan(span);
+		return activate(stack, span);
 	}
 
 	@Override
@@ -92,14 +152,15 @@ public class DefaultTracer implements Tracer {
 		if (span == null) {
 			return null;
 		}
-		Span cur = SpanContextHolder.getCurrentSpan();
+		SpanStack stack = SpanContextHolder.current();
+		Span cur = stack.peek();
 		if (!span.equals(cur)) {
 			ExceptionUtils.warn("Tried to detach trace span but "
 					+ "it is not the current span: " + span
 					+ ". You may have forgotten to close or detach " + cur);
 		}
 		else {
-			SpanContextHolder.removeCurrentSpan();
+			stack.clear();
 		}
 		return span.getSavedSpan();
 	}
@@ -109,64 +170,90 @@ public class DefaultTracer implements Tracer {
 		if (span == null) {
 			return null;
 		}
-		Span cur = SpanContextHolder.getCurrentSpan();
+		SpanStack stack = SpanContextHolder.current();
+		Span cur = stack.peek();
 		Span savedSpan = span.getSavedSpan();
 		if (!span.equals(cur)) {
 			ExceptionUtils.warn(
 					"Tried to close span but " + "it is not the current span: " + span
 							+ ".  You may have forgotten to close or detach " + cur);
+			// not reported, but stopped so it doesn't hold on to its memory budget
+			span.stop();
 		}
 		else {
 			span.stop();
-			if (savedSpan != null && span.getParents().contains(savedSpan.getSpanId())) {
-				this.spanReporter.report(span);
+			if (savedSpan != null && span.hasParent(savedSpan.getSpanId())) {
+				report(span);
 				this.spanLogger.logStoppedSpan(savedSpan, span);
 			}
 			else {
 				if (!span.isRemote()) {
-					this.spanReporter.report(span);
+					report(span);
 					this.spanLogger.logStoppedSpan(null, span);
 				}
 			}
-			SpanContextHolder.close();
+			stack.close();
 		}
 		return savedSpan;
 	}
 
+	private void report(Span span) {
+		if (span.isExportable()) {
+			this.spanReporter.report(span.finish());
+		}
+	}
+
 	protected Span createChild(Span parent, String name) {
+		return createChild(SpanContextHolder.current(), parent, name);
+	}
+
+	private Span createChild(SpanStack stack, Span parent, String name) {
 		long id = createId();
+		SpanMemoryBudget budget = this.memoryBudget;
 		if (parent == null) {
-			Span span = Span.builder().begin(System.currentTimeMillis()).name(name)
-					.traceId(id).spanId(id).build();
+			Span span = new Span(this.clock.anchor(), 0, name,
+					this.idGenerator.nextTraceIdHigh(), id, NO_PARENTS, id, false,
+					reserve(budget), null, null, this.spanLimits, budget);
 			this.spanLogger.logStartedSpan(null, span);
 			return span;
 		}
 		else {
-			if (!isTracing()) {
-				SpanContextHolder.push(parent, true);
+			if (stack.isEmpty()) {
+				stack.push(parent, true);
 			}
-			Span span = Span.builder().begin(System.currentTimeMillis()).name(name)
-					.traceId(parent.getTraceId()).parent(parent.getSpanId()).spanId(id)
-					.processId(parent.getProcessId()).savedSpan(parent)
-					.exportable(parent.isExportable()).build();
+			// a remote parent starts a new local root, anchor a clock for it
+			TraceClock clock = parent.isRemote() ? this.clock.anchor() : parent.getClock();
+			// saves the current span right away so activating the child needs no copy
+			Span span = new Span(clock, 0, name, parent.getTraceIdHigh(), parent.getTraceId(),
+					new long[] { parent.getSpanId() }, id, false,
+					parent.isExportable() && reserve(budget), parent.getProcessId(),
+					stack.peek(), this.spanLimits, budget);
 			this.spanLogger.logStartedSpan(parent, span);
 			return span;
 		}
 	}
 
+	private static boolean reserve(SpanMemoryBudget budget) {
+		return budget == null || budget.tryReserveSpan();
+	}
+
 	private long createId() {
-		return this.random.nextLong();
+		return this.idGenerator.nextId();
 	}
 
 	@Override
 	public Span continueSpan(Span span) {
+		return continueSpan(SpanContextHolder.current(), span);
+	}
+
+	private Span continueSpan(SpanStack stack, Span span) {
 		if (span != null) {
 			this.spanLogger.logContinuedSpan(span);
 		} else {
 			return null;
 		}
-		Span newSpan = createContinuedSpan(span, SpanContextHolder.getCurrentSpan());
-		SpanContextHolder.setCurrentSpan(newSpan);
+		Span newSpan = createContinuedSpan(span, stack.peek());
+		SpanContextHolder.setCurrentSpan(stack, newSpan);
 		return newSpan;
 	}
 
@@ -177,6 +264,61 @@ public class DefaultTracer implements Tracer {
 		return new Span(span, saved);
 	}
 
+	/**
+	 * Makes a span just created on this thread current. It is only copied if it did
+	 * not save the current span, which is what {@link #continueSpan(Span)} would do.
+	 */
+	private Span activate(SpanStack stack, Span span) {
+		Span current = stack.peek();
+		if (current != null && current != span.getSavedSpan()) {
+			span = createContinuedSpan(span, current);
+		}
+		SpanContextHolder.setCurrentSpan(stack, span);
+		return span;
+	}
+
+	@Override
+	public SpanInScope withSpanInScope(Span span) {
+		SpanStack stack = SpanContextHolder.current();
+		Span previous = stack.peek();
+		if (span == null || span.equals(previous)) {
+			return NOOP_SCOPE;
+		}
+		int depth = stack.depth();
+		SpanContextHolder.setCurrentSpan(stack, span);
+		this.spanLogger.logContinuedSpan(span);
+		return new Scope(stack, depth, previous);
+	}
+
+	/**
+	 * Restores the stack of the thread that opened it to its depth at the time
+	 */
+	private final class Scope implements SpanInScope {
+
+		private final SpanStack stack;
+		private final int depth;
+		private final Span previous;
+		private boolean closed;
+
+		Scope(SpanStack stack, int depth, Span previous) {
+			this.stack = stack;
+			this.depth = depth;
+			this.previous = previous;
+		}
+
+		@Override
+		public void close() {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			this.stack.popTo(this.depth);
+			if (this.previous != null) {
+				DefaultTracer.this.spanLogger.logContinuedSpan(this.previous);
+			}
+		}
+	}
+
 	@Override
 	public Span getCurrentSpan() {
 		return SpanContextHolder.getCurrentSpan();
@@ -195,6 +337,14 @@ public class DefaultTracer implements Tracer {
 		}
 	}
 
+	@Override
+	public void addTag(TagKey key, String value) {
+		Span s = getCurrentSpan();
+		if (s != null && s.isExportable()) {
+			s.tag(key, value);
+		}
+	}
+
 	/**
 	 * Wrap the callable in a TraceCallable, if tracing.
 	 *
@@ -30,24 +30,42 @@ class SpanContextHolder {
 
 	private static final Log log = org.apache.commons.logging.LogFactory
 			.getLog(SpanContextHolder.class);
-	private static final ThreadLocal<SpanContext> CURRENT_SPAN = new NamedThreadLocal<>(
+	private static final ThreadLocal<SpanStack> CURRENT_SPAN = new NamedThreadLocal<SpanStack>(
 			"Trace Context");
 
+	/**
+	 * The span stack of the current thread, created on first use. Look it up once and
+	 * work on the stack when doing more than one operation.
+	 */
+	static SpanStack current() {
+		SpanStack stack = CURRENT_SPAN.get();
+		if (stack == null) {
+			stack = new SpanStack();
+			CURRENT_SPAN.set(stack);
+		}
+		return stack;
+	}
+
 	/**
 	 * Get the current span out of the thread context
 	 */
 	static Span getCurrentSpan() {
-		return isTracing() ? CURRENT_SPAN.get().span : null;
+		SpanStack stack = CURRENT_SPAN.get();
+		return stack == null ? null : stack.peek();
 	}
 
 	/**
 	 * Set the current span in the thread context
 	 */
 	static void setCurrentSpan(Span span) {
+		setCurrentSpan(current(), span);
+	}
+
+	static void setCurrentSpan(SpanStack stack, Span span) {
 		if (log.isTraceEnabled()) {
 			log.trace("Setting current span " + span);
 		}
-		push(span, false);
+		stack.push(span, false);
 	}
 
 	/**
@@ -63,24 +81,15 @@ class SpanContextHolder {
 	 * Check if there is already a span in the current thread
 	 */
 	static boolean isTracing() {
-		return CURRENT_SPAN.get() != null;
+		SpanStack stack = CURRENT_SPAN.get();
+		return stack != null && !stack.isEmpty();
 	}
 
 	/**
 	 * Close the current span and all parents that can be auto closed.
 	 */
 	static void close() {
-		SpanContext current = CURRENT_SPAN.get();
-		CURRENT_SPAN.remove();
-		while (current != null) {
-			current = current.parent;
-			if (current != null) {
-				if (!current.autoClose) {
-					CURRENT_SPAN.set(current);
-					current = null;
-				}
-			}
-		}
+		current().close();
 	}
 
 	/**
@@ -89,28 +98,6 @@ class SpanContextHolder {
 	 * a parent that wasn't already in thread context.
 	 */
 	static void push(Span span, boolean autoClose) {
-		if (isCurrent(span)) {
-			return;
-		}
-		CURRENT_SPAN.set(new SpanContext(span, autoClose));
-	}
-
-	private static boolean isCurrent(Span span) {
-		if (span == null || CURRENT_SPAN.get() == null) {
-			return false;
-		}
-		return span.equals(CURRENT_SPAN.get().span);
-	}
-
-	private static class SpanContext {
-		Span span;
-		boolean autoClose;
-		SpanContext parent;
-
-		public SpanContext(Span span, boolean autoClose) {
-			this.span = span;
-			this.autoClose = autoClose;
-			this.parent = CURRENT_SPAN.get();
-		}
+		current().push(span, autoClose);
 	}
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.trace;
+
+import java.util.Arrays;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.util.ExceptionUtils;
+
+/**
+ * The spans in context of one thread, innermost last, with their auto close flags.
+ * <p>
+ * Backed by arrays that are only allocated by the first push, so a short-lived thread
+ * that merely looks up the current span pays for no more than this object. They grow
+ * on demand and are kept when the stack is emptied, so a pooled thread reuses them
+ * from one request to the next. A stack deeper than {@link #MAX_DEPTH} means spans
+ * are continued but never closed or detached: it is discarded with a warning rather
+ * than growing without bound.
+ *
+ * @since 1.0.6
+ */
+final class SpanStack {
+
+	static final int MAX_DEPTH = 1024;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	/** Larger arrays are not kept for reuse once the stack is cleared */
+	private static final int MAX_RETAINED_CAPACITY = 64;
+
+	private static final Span[] NO_SPANS = new Span[0];
+	private static final boolean[] NO_FLAGS = new boolean[0];
+
+	private Span[] spans = NO_SPANS;
+	private boolean[] autoClose = NO_FLAGS;
+	private int size;
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	int depth() {
+		return this.size;
+	}
+
+	/**
+	 * The current span, {@code null} if there is none
+	 */
+	Span peek() {
+		return this.size == 0 ? null : this.spans[this.size - 1];
+	}
+
+	/**
+	 * Pushes the span unless it already is the current span
+	 *
+	 * @param autoClose whether to pop the span together with the span above it
+	 */
+	void push(Span span, boolean autoClose) {
+		int size = this.size;
+		if (size > 0 && span != null && span.equals(this.spans[size - 1])) {
+			return;
+		}
+		if (size == MAX_DEPTH) {
+			ExceptionUtils.warn("Span stack exceeded " + MAX_DEPTH
+					+ " spans, discarding it. You may have forgotten to close or detach "
+					+ peek());
+			clear();
+			size = 0;
+		}
+		if (size == this.spans.length) {
+			int capacity = size == 0 ? INITIAL_CAPACITY : size * 2;
+			this.spans = Arrays.copyOf(this.spans, capacity);
+			this.autoClose = Arrays.copyOf(this.autoClose, capacity);
+		}
+		this.spans[size] = span;
+		this.autoClose[size] = autoClose;
+		this.size = size + 1;
+	}
+
+	/**
+	 * Pops the current span and all auto close spans below it
+	 */
+	void close() {
+		int size = this.size;
+		if (size == 0) {
+			return;
+		}
+		do {
+			this.spans[--size] = null;
+		}
+		while (size > 0 && this.autoClose[size - 1]);
+		this.size = size;
+	}
+
+	/**
+	 * Pops spans until at most the given number is left
+	 */
+	void popTo(int depth) {
+		int size = this.size;
+		while (size > depth) {
+			this.spans[--size] = null;
+		}
+		this.size = size;
+	}
+
+	void clear() {
+		if (this.spans.length > MAX_RETAINED_CAPACITY) {
+			this.spans = NO_SPANS;
+			this.autoClose = NO_FLAGS;
+		}
+		else {
+			Arrays.fill(this.spans, 0, this.size, null);
+		}
+		this.size = 0;
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.util;
+
+/**
+ * Lower-case hex encoding of ids through lookup tables, without {@code BigInteger} or
+ * intermediate strings.
+ * <p>
+ * Encoded ids carry no leading zeros, as {@link Long#toHexString(long)}, except for the
+ * lower half of a 128-bit id which is always 16 characters. Decoding accepts upper and
+ * lower case digits. Like Zipkin it reads only the rightmost 32 chars of a longer
+ * trace id, so a peer sending wider ids still joins the trace by its lower 128 bits.
+ *
+ * @since 1.0.6
+ */
+public final class HexCodec {
+
+	private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final byte[] VALUES = new byte[128];
+
+	static {
+		for (int i = 0; i < VALUES.length; i++) {
+			VALUES[i] = -1;
+		}
+		for (int i = 0; i < 10; i++) {
+			VALUES['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			VALUES['a' + i] = (byte) (10 + i);
+			VALUES['A' + i] = (byte) (10 + i);
+		}
+	}
+
+	private HexCodec() {
+		throw new IllegalStateException("Utility class can't be instantiated");
+	}
+
+	/**
+	 * Writes the id as 16 hex chars, padded with zeros
+	 *
+	 * @return the offset after the written chars
+	 */
+	public static int writeHex(long id, char[] buffer, int offset) {
+		for (int i = offset + 15; i >= offset; i--) {
+			buffer[i] = DIGITS[(int) (id & 0xF)];
+			id >>>= 4;
+		}
+		return offset + 16;
+	}
+
+	public static String toHex(long id) {
+		char[] buffer = new char[16];
+		writeHex(id, buffer, 0);
+		int digits = digits(id);
+		return new String(buffer, 16 - digits, digits);
+	}
+
+	/**
+	 * Hex representation of a 128-bit id, the same as {@link #toHex(long)} if the upper
+	 * bits are 0
+	 */
+	public static String toHex(long high, long low) {
+		if (high == 0) {
+			return toHex(low);
+		}
+		char[] buffer = new char[32];
+		writeHex(high, buffer, 0);
+		writeHex(low, buffer, 16);
+		int skip = 16 - digits(high);
+		return new String(buffer, skip, 32 - skip);
+	}
+
+	/**
+	 * Parses the hex chars between {@code begin} (inclusive) and {@code end}
+	 * (exclusive)
+	 *
+	 * @throws NumberFormatException if there are no or more than 16 chars or one of
+	 * them is not a hex digit
+	 */
+	public static long parseHex(CharSequence hex, int begin, int end) {
+		int length = end - begin;
+		if (length <= 0 || length > 16) {
+			throw new NumberFormatException(
+					"Can't convert " + length + " hex chars to long: " + hex);
+		}
+		long id = 0;
+		for (int i = begin; i < end; i++) {
+			char c = hex.charAt(i);
+			int value = c < VALUES.length ? VALUES[c] : -1;
+			if (value < 0) {
+				throw new NumberFormatException("Not a hex string: " + hex);
+			}
+			id = (id << 4) | value;
+		}
+		return id;
+	}
+
+	/**
+	 * Lower 64 bits of a hex id, its rightmost 16 chars
+	 */
+	public static long parseLowHex(CharSequence hex) {
+		int length = hex.length();
+		return parseHex(hex, Math.max(0, length - 16), length);
+	}
+
+	/**
+	 * Upper 64 bits of a 128-bit hex id, the 16 chars before the rightmost 16, 0 for up
+	 * to 16 chars. Chars left of the rightmost 32 are ignored.
+	 */
+	public static long parseHighHex(CharSequence hex) {
+		int length = hex.length();
+		return length <= 16 ? 0 : parseHex(hex, Math.max(0, length - 32), length - 16);
+	}
+
+	private static int digits(long id) {
+		return Math.max(1, (64 - Long.numberOfLeadingZeros(id) + 3) >> 2);
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in microseconds with a fixed memory footprint.
+ * <p>
+ * Values below 8 µs get a bucket each, larger values fall into log-linear buckets:
+ * every power of two is split into 8 sub-buckets, so a percentile is reported with an
+ * error of at most 12.5%. Values above roughly 19 hours are clamped into the last
+ * bucket. Recording is a single atomic increment per counter and may be done from any
+ * number of threads.
+ *
+ * @since 1.0.6
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_BIT = 36;
+	private static final long MAX_MICROS = (1L << (MAX_BIT + 1)) - 1;
+	private static final int BUCKETS = (MAX_BIT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	public void record(long duration, TimeUnit unit) {
+		long micros = Math.min(Math.max(0, unit.toMicros(duration)), MAX_MICROS);
+		this.counts.incrementAndGet(indexOf(micros));
+		this.count.incrementAndGet();
+		this.totalMicros.addAndGet(micros);
+		long max;
+		while (micros > (max = this.maxMicros.get())) {
+			if (this.maxMicros.compareAndSet(max, micros)) {
+				break;
+			}
+		}
+	}
+
+	static int indexOf(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int bit = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (bit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (bit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long lowerBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int bit = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = index % SUB_BUCKETS;
+		return (SUB_BUCKETS + sub) << (bit - SUB_BUCKET_BITS);
+	}
+
+	public long getCount() {
+		return this.count.get();
+	}
+
+	public long getMaxMicros() {
+		return this.maxMicros.get();
+	}
+
+	public double getMeanMicros() {
+		long count = this.count.get();
+		return count == 0 ? 0 : (double) this.totalMicros.get() / count;
+	}
+
+	/**
+	 * Upper bound of the bucket holding the given percentile, never more than the
+	 * largest recorded value
+	 *
+	 * @param percentile between 0 and 100
+	 */
+	public long getPercentileMicros(double percentile) {
+		long count = this.count.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if (seen >= rank) {
+				long upper = i + 1 < BUCKETS ? lowerBoundOf(i + 1) - 1 : MAX_MICROS;
+				return Math.min(upper, this.maxMicros.get());
+			}
+		}
+		return this.maxMicros.get();
+	}
+
+	/**
+	 * Not atomic with respect to concurrent recording, values recorded meanwhile may be
+	 * kept in some of the counters
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.counts.set(i, 0);
+		}
+		this.count.set(0);
+		this.totalMicros.set(0);
+		this.maxMicros.set(0);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yoho.core.trace.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free multi-producer / single-consumer queue backed by a ring of
+ * sequenced slots.
+ * <p>
+ * Producers claim a slot with a single compare-and-set on the producer index and
+ * never block: when the ring is full {@link #offer(Object)} returns {@code false}
+ * and the caller decides what to do with the element. Only one thread may call
+ * {@link #poll()} / {@link #drainTo(Collection, int)} at a time.
+ *
+ * @param <E> type of the queued elements
+ * @since 1.0.6
+ */
+public final class MpscRingBuffer<E> {
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	/**
+	 * Per slot sequence. A slot is free for the producer at position {@code p} when its
+	 * sequence equals {@code p} and holds a published element when it equals {@code p + 1}.
+	 */
+	private final AtomicLongArray sequences;
+	private final AtomicLong producerIndex = new AtomicLong();
+	private final AtomicLong consumerIndex = new AtomicLong();
+
+	/**
+	 * @param requestedCapacity minimal capacity, rounded up to the next power of two
+	 */
+	public MpscRingBuffer(int requestedCapacity) {
+		if (requestedCapacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive but was " + requestedCapacity);
+		}
+		this.capacity = roundToPowerOfTwo(requestedCapacity);
+		this.mask = this.capacity - 1;
+		this.elements = new AtomicReferenceArray<>(this.capacity);
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			this.sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Inserts the element if there is room for it.
+	 *
+	 * @return {@code false} if the ring is full
+	 */
+	public boolean offer(E element) {
+		if (element == null) {
+			throw new NullPointerException("Null elements are not supported");
+		}
+		long position;
+		int index;
+		for (;;) {
+			position = this.producerIndex.get();
+			index = (int) (position & this.mask);
+			long difference = this.sequences.get(index) - position;
+			if (difference == 0) {
+				if (this.producerIndex.compareAndSet(position, position + 1)) {
+					break;
+				}
+			}
+			else if (difference < 0) {
+				return false;
+			}
+		}
+		this.elements.lazySet(index, element);
+		// release store - publishes the element to the consumer
+		this.sequences.lazySet(index, position + 1);
+		return true;
+	}
+
+	/**
+	 * Removes the head element. Must only be called from the consumer thread.
+	 *
+	 * @return the head element or {@code null} if nothing has been published yet
+	 */
+	public E poll() {
+		long position = this.consumerIndex.get();
+		int index = (int) (position & this.mask);
+		if (this.sequences.get(index) != position + 1) {
+			return null;
+		}
+		E element = this.elements.get(index);
+		this.elements.lazySet(index, null);
+		this.sequences.lazySet(index, position + this.capacity);
+		this.consumerIndex.lazySet(position + 1);
+		return element;
+	}
+
+	/**
+	 * Moves up to {@code maxElements} published elements to the given collection. Must
+	 * only be called from the consumer thread.
+	 *
+	 * @return number of transferred elements
+	 */
+	public int drainTo(Collection<? super E> target, int maxElements) {
+		int drained = 0;
+		while (drained < maxElements) {
+			E element = poll();
+			if (element == null) {
+				break;
+			}
+			target.add(element);
+			drained++;
+		}
+		return drained;
+	}
+
+	/**
+	 * Approximate number of queued elements. Safe to call from any thread.
+	 */
+	public int size() {
+		long size = this.producerIndex.get() - this.consumerIndex.get();
+		if (size < 0) {
+			return 0;
+		}
+		return (int) Math.min(size, this.capacity);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int capacity() {
+		return this.capacity;
+	}
+
+	private static int roundToPowerOfTwo(int value) {
+		if (value > (1 << 30)) {
+			throw new IllegalArgumentException("Capacity " + value + " is too large");
+		}
+		return value == 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FinishedSpanTests {
+
+	@Test
+	public void should_snapshot_a_stopped_span() {
+		Span saved = Span.builder().traceId(1L).spanId(1L).build();
+		Span span = new Span(null, 0, "span", 0, 1L, new long[] { 1L }, 2L, false, true,
+				"process", saved);
+		span.tag("key", "value");
+		span.logEvent("event");
+
+		FinishedSpan finished = span.finish();
+
+		assertFalse(span.isRunning());
+		assertEquals(span.getEndMicros(), finished.getEndMicros());
+		assertEquals(span, finished);
+		assertEquals("span", finished.getName());
+		assertEquals("process", finished.getProcessId());
+		assertEquals("value", finished.getTag("key"));
+		assertEquals("event", finished.getLogEvent(0));
+		assertNull(finished.getSavedSpan());
+		assertSame(finished, finished.finish());
+	}
+
+	@Test
+	public void should_reject_and_count_late_tags_and_logs() {
+		Span span = new Span(null, 0, "span", 0, 1L, null, 1L, false, true, null, null);
+		span.tag("key", "value");
+		Span copy = new Span(span, null);
+		FinishedSpan finished = span.finish();
+		long lateMutations = FinishedSpan.getLateMutationCount();
+
+		span.tag("key", "changed");
+		copy.tag("other", "value");
+		copy.logEvent("late");
+		finished.tag("other", "value");
+
+		assertEquals(lateMutations + 4, FinishedSpan.getLateMutationCount());
+		assertEquals(1, finished.getTagCount());
+		assertEquals("value", finished.getTag("key"));
+		assertEquals(0, finished.getLogCount());
+		assertEquals("value", span.getTag("key"));
+	}
+
+	@Test
+	public void should_reject_late_tags_on_spans_finished_without_any() {
+		Span span = new Span(null, 0, "span", 0, 1L, null, 1L, false, true, null, null);
+		Span copy = new Span(span, null);
+
+		FinishedSpan finished = span.finish();
+		copy.tag("key", "value");
+
+		assertEquals(0, finished.getTagCount());
+		assertTrue(finished.tags().isEmpty());
+		assertNull(copy.getTag("key"));
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RandomIdGeneratorTests {
+
+	@Test
+	public void should_skip_a_zero_id() {
+		Random random = new Random() {
+
+			private final long[] ids = { 0, 0, 42 };
+
+			private int next;
+
+			@Override
+			public long nextLong() {
+				return this.ids[this.next++];
+			}
+		};
+
+		assertEquals(42, new RandomIdGenerator(random).nextId());
+	}
+}
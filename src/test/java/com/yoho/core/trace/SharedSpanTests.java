@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static com.yoho.core.trace.SpanTests.race;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SharedSpanTests {
+
+	private static final int THREADS = 8;
+
+	private static final int WRITES = 500;
+
+	@Test
+	public void should_keep_every_log_when_continued_copies_write_at_once() throws Exception {
+		Span span = newSpan();
+		final Span[] copies = continuedCopies(span);
+
+		race(THREADS, new SpanTests.Task() {
+			@Override
+			public void run(int thread) {
+				for (int i = 0; i < WRITES; i++) {
+					copies[thread].logEvent(thread + ":" + i);
+				}
+			}
+		});
+
+		assertEquals(THREADS * WRITES, span.getLogCount());
+		int[] next = new int[THREADS];
+		for (int i = 0; i < span.getLogCount(); i++) {
+			String[] event = span.getLogEvent(i).split(":");
+			int thread = Integer.parseInt(event[0]);
+			assertEquals("logs of one writer keep their order", next[thread]++,
+					Integer.parseInt(event[1]));
+		}
+	}
+
+	@Test
+	public void should_keep_every_tag_when_continued_copies_write_at_once() throws Exception {
+		Span span = newSpan();
+		final Span[] copies = continuedCopies(span);
+
+		race(THREADS, new SpanTests.Task() {
+			@Override
+			public void run(int thread) {
+				for (int i = 0; i < WRITES; i++) {
+					copies[thread].tag("shared", String.valueOf(thread));
+					copies[thread].tag("writer" + thread + "." + (i % 10), String.valueOf(i));
+				}
+			}
+		});
+
+		assertEquals(THREADS * 10 + 1, span.getTagCount());
+		for (int thread = 0; thread < THREADS; thread++) {
+			assertEquals(String.valueOf(WRITES - 1), span.getTag("writer" + thread + ".9"));
+		}
+	}
+
+	@Test
+	public void should_install_one_annotations_when_first_writes_race() throws Exception {
+		for (int round = 0; round < 100; round++) {
+			final Span span = newSpan();
+
+			race(THREADS, new SpanTests.Task() {
+				@Override
+				public void run(int thread) {
+					span.tag("writer" + thread, "value");
+					span.logEvent("event" + thread);
+				}
+			});
+
+			assertEquals(THREADS, span.getTagCount());
+			assertEquals(THREADS, span.getLogCount());
+		}
+	}
+
+	@Test
+	public void should_show_a_reader_complete_entries_while_writers_append() throws Exception {
+		final Span span = newSpan();
+		final Span[] copies = continuedCopies(span);
+		final AtomicInteger writing = new AtomicInteger(THREADS);
+		final AtomicReference<String> failure = new AtomicReference<String>();
+
+		race(THREADS + 1, new SpanTests.Task() {
+			@Override
+			public void run(int thread) {
+				if (thread == THREADS) {
+					read(span, writing, failure);
+					return;
+				}
+				for (int i = 0; i < WRITES; i++) {
+					copies[thread].logEvent("event");
+					copies[thread].tag("writer" + thread, String.valueOf(i));
+				}
+				writing.decrementAndGet();
+			}
+		});
+
+		assertNull(failure.get());
+	}
+
+	private static void read(Span span, AtomicInteger writing, AtomicReference<String> failure) {
+		int lastLogCount = 0;
+		do {
+			int logCount = span.getLogCount();
+			if (logCount < lastLogCount) {
+				failure.set("log count went from " + lastLogCount + " to " + logCount);
+				return;
+			}
+			for (int i = 0; i < logCount; i++) {
+				if (span.getLogEvent(i) == null || span.getLogTimestampMicros(i) == 0) {
+					failure.set("log " + i + " of " + logCount + " is incomplete");
+					return;
+				}
+			}
+			List<String> keys = new ArrayList<String>(span.tags().keySet());
+			for (int i = 0; i < span.getTagCount(); i++) {
+				if (span.getTagKey(i) == null || span.getTagValue(i) == null) {
+					failure.set("tag " + i + " is incomplete, keys " + keys);
+					return;
+				}
+			}
+			lastLogCount = logCount;
+		}
+		while (writing.get() > 0);
+	}
+
+	private static Span newSpan() {
+		return new Span(null, 1000, "shared", 0, 1, null, 2, false, true, null, null);
+	}
+
+	private static Span[] continuedCopies(Span span) {
+		Span[] copies = new Span[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			copies[i] = new Span(span, null);
+		}
+		return copies;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+import java.util.concurrent.TimeUnit;
+
+import com.yoho.core.trace.log.SpanLogger;
+import com.yoho.core.trace.sampler.AlwaysSampler;
+import com.yoho.core.trace.trace.DefaultTracer;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpanMemoryBudgetTests {
+
+	private final SpanMemoryBudget budget = new SpanMemoryBudget();
+
+	private final DefaultTracer tracer = new DefaultTracer(new AlwaysSampler(),
+			new DefaultIdGenerator(), new DefaultSpanNamer(), new SpanLogger() {
+				@Override
+				public void logStartedSpan(Span parent, Span span) {
+				}
+
+				@Override
+				public void logContinuedSpan(Span span) {
+				}
+
+				@Override
+				public void logStoppedSpan(Span parent, Span span) {
+				}
+			}, new NoOpSpanReporter());
+
+	@After
+	public void clean() {
+		Span current;
+		while ((current = this.tracer.getCurrentSpan()) != null) {
+			this.tracer.detach(current);
+		}
+	}
+
+	@Test
+	public void should_degrade_new_spans_once_max_bytes_are_used() {
+		this.budget.setMaxBytes(2 * SpanMemoryBudget.SPAN_BYTES);
+		this.tracer.setMemoryBudget(this.budget);
+
+		Span root = this.tracer.createSpan("root");
+		Span child = this.tracer.createSpan("child");
+		Span degraded = this.tracer.createSpan("degraded");
+
+		assertTrue(root.isExportable());
+		assertTrue(child.isExportable());
+		assertFalse(degraded.isExportable());
+		assertEquals(1, this.budget.getDegradedSpans());
+		assertEquals(2, this.budget.getLiveSpans());
+
+		this.tracer.close(degraded);
+		this.tracer.close(child);
+		assertTrue(this.tracer.createSpan("again").isExportable());
+	}
+
+	@Test
+	public void should_account_tags_and_logs_until_the_span_is_stopped() {
+		this.tracer.setMemoryBudget(this.budget);
+		Span span = this.tracer.createSpan("span");
+
+		span.tag("key", "value");
+		span.logEvent("event");
+		assertEquals(SpanMemoryBudget.SPAN_BYTES + SpanMemoryBudget.tagBytes("value")
+				+ SpanMemoryBudget.LOG_BYTES, this.budget.getUsedBytes());
+		span.tag("key", "a longer value");
+		assertEquals(SpanMemoryBudget.SPAN_BYTES + SpanMemoryBudget.tagBytes("a longer value")
+				+ SpanMemoryBudget.LOG_BYTES, this.budget.getUsedBytes());
+
+		this.tracer.close(span);
+
+		assertEquals(0, this.budget.getUsedBytes());
+		assertEquals(0, this.budget.getLiveSpans());
+	}
+
+	@Test
+	public void should_cap_spans_without_a_budget() {
+		SpanLimits limits = this.tracer.getSpanLimits();
+		limits.setMaxTagCount(2);
+		limits.setMaxTagValueLength(4);
+		limits.setMaxLogCount(1);
+		Span span = this.tracer.createSpan("span");
+
+		span.tag("first", "123456");
+		span.tag("second", "12");
+		span.tag("third", "12");
+		span.tag("first", "1");
+		span.logEvent("first");
+		span.logEvent("second");
+
+		assertEquals(2, span.getTagCount());
+		assertEquals("1", span.getTag("first"));
+		assertNull(span.getTag("third"));
+		assertEquals(1, span.getLogCount());
+		assertEquals(1, limits.getTruncatedTags());
+		assertEquals(1, limits.getDroppedTags());
+		assertEquals(1, limits.getDroppedLogs());
+		this.tracer.close(span);
+	}
+
+	@Test
+	public void should_truncate_long_tag_values() {
+		this.tracer.getSpanLimits().setMaxTagValueLength(4);
+		Span span = this.tracer.createSpan("span");
+
+		span.tag("key", "123456");
+
+		assertEquals("1234", span.getTag("key"));
+		this.tracer.close(span);
+	}
+
+	@Test
+	public void should_release_the_budget_once_when_continued_copies_stop_concurrently()
+			throws Exception {
+		for (int i = 0; i < 100; i++) {
+			assertTrue(this.budget.tryReserveSpan());
+			Span span = new Span(null, 0, "span", 0, 1, null, 2, false, true, null, null,
+					null, this.budget);
+			span.tag("http.url", "http://localhost/" + i);
+			final Span[] copies = new Span[8];
+			for (int thread = 0; thread < copies.length; thread++) {
+				copies[thread] = new Span(span, null);
+			}
+
+			SpanTests.race(copies.length, new SpanTests.Task() {
+				@Override
+				public void run(int thread) {
+					copies[thread].stop();
+				}
+			});
+			span.stop();
+
+			assertEquals(0, this.budget.getLiveSpans());
+			assertEquals(0, this.budget.getUsedBytes());
+		}
+	}
+
+	@Test
+	public void should_release_the_budget_of_a_span_closed_while_not_current() {
+		this.tracer.setMemoryBudget(this.budget);
+		Span detached = this.tracer.createSpan("detached");
+		this.tracer.detach(detached);
+		Span current = this.tracer.createSpan("current");
+
+		this.tracer.close(detached);
+		assertEquals(1, this.budget.getLiveSpans());
+		this.tracer.close(current);
+
+		assertEquals(0, this.budget.getLiveSpans());
+		assertEquals(0, this.budget.getUsedBytes());
+		assertEquals(0, this.budget.getReclaimedSpans());
+	}
+
+	@Test
+	public void should_reclaim_the_reservation_of_a_span_collected_without_being_stopped()
+			throws Exception {
+		this.tracer.setMemoryBudget(this.budget);
+		Span detached = this.tracer.createSpan("detached");
+		detached.tag("key", "value");
+		this.tracer.detach(detached);
+		detached = null;
+		assertEquals(1, this.budget.getLiveSpans());
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (this.budget.getLiveSpans() > 0 && System.nanoTime() < deadline) {
+			System.gc();
+			Thread.sleep(10);
+		}
+
+		assertEquals(0, this.budget.getLiveSpans());
+		assertEquals(0, this.budget.getUsedBytes());
+		assertEquals(1, this.budget.getReclaimedSpans());
+	}
+}
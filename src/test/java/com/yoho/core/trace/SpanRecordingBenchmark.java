@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Throughput of tags and logs recorded on spans shared by 1, 8 and 32 writer threads,
+ * each writing through its own continued copy as executor instrumentation does. Every
+ * writer alternates a tag out of eight keys and a log, {@link #OPERATIONS} per span. Not
+ * a test, run it from the test classpath on the hardware to measure:
+ * <pre>
+ * java -cp target/test-classes:target/classes:... com.yoho.core.trace.SpanRecordingBenchmark [spans] [writers...]
+ * </pre>
+ */
+public class SpanRecordingBenchmark {
+
+	static final int OPERATIONS = 1024;
+
+	private static final String[] KEYS = new String[8];
+
+	static {
+		for (int i = 0; i < KEYS.length; i++) {
+			KEYS[i] = "benchmark.key" + i;
+			TagKey.of(KEYS[i]);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int spans = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int[] writerCounts = { 1, 8, 32 };
+		if (args.length > 1) {
+			writerCounts = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				writerCounts[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+		System.out.printf("%d cpus, %d ops per writer and span%n",
+				Runtime.getRuntime().availableProcessors(), OPERATIONS);
+		for (int writers : writerCounts) {
+			// warm up with the same shape before measuring
+			run(writers, Math.max(1, spans / 4));
+			Result result = run(writers, spans);
+			System.out.printf("%2d writers  %6.2f Mops/s  lost logs %d%n", writers,
+					result.opsPerMicro, result.lostLogs);
+		}
+	}
+
+	static Result run(int writers, int spans) throws InterruptedException {
+		final CyclicBarrier barrier = new CyclicBarrier(writers + 1);
+		final Span[] shared = new Span[writers];
+		Thread[] threads = new Thread[writers];
+		for (int w = 0; w < writers; w++) {
+			final int writer = w;
+			threads[w] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int s = 0; s < spans; s++) {
+							barrier.await();
+							record(shared[writer], writer);
+							barrier.await();
+						}
+					}
+					catch (InterruptedException | BrokenBarrierException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			threads[w].setDaemon(true);
+			threads[w].start();
+		}
+		long lostLogs = 0;
+		long elapsed = 0;
+		try {
+			for (int s = 0; s < spans; s++) {
+				Span span = new Span(null, 0, "shared", 0, s + 1, null, s + 1, false, true,
+						null, null);
+				for (int w = 0; w < writers; w++) {
+					shared[w] = new Span(span, null);
+				}
+				barrier.await();
+				long start = System.nanoTime();
+				barrier.await();
+				elapsed += System.nanoTime() - start;
+				lostLogs += writers * (OPERATIONS / 2) - span.getLogCount();
+			}
+		}
+		catch (BrokenBarrierException e) {
+			throw new IllegalStateException(e);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return new Result((double) writers * OPERATIONS * spans * 1000 / elapsed,
+				lostLogs);
+	}
+
+	private static void record(Span span, int writer) {
+		for (int i = 0; i < OPERATIONS; i += 2) {
+			span.tag(KEYS[(writer + i) & 7], "value");
+			span.logEvent("event");
+		}
+	}
+
+	static final class Result {
+
+		/** millions of operations per second */
+		final double opsPerMicro;
+
+		final long lostLogs;
+
+		Result(double opsPerMicro, long lostLogs) {
+			this.opsPerMicro = opsPerMicro;
+			this.lostLogs = lostLogs;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpanTests {
+
+	private static final int THREADS = 8;
+
+	/** a distinct timestamp per read, so a second stop would be visible */
+	private final TraceClock clock = new TraceClock() {
+
+		private final AtomicLong micros = new AtomicLong(1000);
+
+		@Override
+		public long currentTimeMicros() {
+			return this.micros.incrementAndGet();
+		}
+
+		@Override
+		public TraceClock anchor() {
+			return this;
+		}
+	};
+
+	@Test
+	public void should_set_the_end_once_when_stops_race() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			final Span span = newSpan();
+			final long[] ends = new long[THREADS];
+
+			race(new Task() {
+				@Override
+				public void run(int thread) {
+					span.stop();
+					ends[thread] = span.getEndMicros();
+				}
+			});
+
+			assertTrue(span.getEndMicros() > span.getBeginMicros());
+			for (long end : ends) {
+				assertEquals(span.getEndMicros(), end);
+			}
+			span.stop();
+			assertEquals(ends[0], span.getEndMicros());
+		}
+	}
+
+	@Test
+	public void should_show_the_stop_to_a_reporter_thread_polling_the_span() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			final Span span = newSpan();
+			final long[] seen = new long[2];
+			Thread reporter = new Thread() {
+				@Override
+				public void run() {
+					// spins on the end until the stop becomes visible
+					while (span.isRunning()) {
+					}
+					seen[0] = span.getEndMicros();
+					seen[1] = span.getAccumulatedMicros();
+				}
+			};
+			reporter.start();
+
+			span.stop();
+			reporter.join(TimeUnit.SECONDS.toMillis(10));
+
+			assertFalse("reporter never saw the stop", reporter.isAlive());
+			assertEquals(span.getEndMicros(), seen[0]);
+			assertEquals(span.getEndMicros() - span.getBeginMicros(), seen[1]);
+		}
+	}
+
+	@Test
+	public void should_freeze_the_duration_once_stopped() {
+		Span span = newSpan();
+		assertTrue(span.isRunning());
+
+		span.stop();
+		long duration = span.getAccumulatedMicros();
+
+		assertFalse(span.isRunning());
+		assertEquals(duration, span.getAccumulatedMicros());
+	}
+
+	@Test
+	public void should_keep_the_end_of_a_stopped_span() {
+		Span span = Span.builder().clock(this.clock).beginMicros(10).endMicros(20)
+				.traceId(1).spanId(1).build();
+
+		span.stop();
+
+		assertEquals(10, span.getAccumulatedMicros());
+		assertEquals(20, span.getEndMicros());
+	}
+
+	private Span newSpan() {
+		return new Span(this.clock, this.clock.currentTimeMicros(), "span", 0, 1,
+				new long[0], 2, false, true, null, null);
+	}
+
+	/**
+	 * Runs the task on {@link #THREADS} threads released at once
+	 */
+	static void race(final Task task) throws InterruptedException {
+		race(THREADS, task);
+	}
+
+	static void race(int threadCount, final Task task) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			final int thread = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					task.run(thread);
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	interface Task {
+
+		void run(int thread);
+	}
+}
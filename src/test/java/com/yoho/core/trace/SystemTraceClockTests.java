@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static com.yoho.core.trace.SpanTests.race;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SystemTraceClockTests {
+
+	private static final int READS = 20000;
+
+	@Test
+	public void should_never_go_back_across_re_anchorings() throws Exception {
+		// re-anchored many times per wall clock millisecond, read in between
+		final SystemTraceClock clock = new SystemTraceClock(
+				TimeUnit.MICROSECONDS.toNanos(200));
+		final AtomicLong handedOut = new AtomicLong();
+		final AtomicReference<String> failure = new AtomicReference<>();
+
+		race(new SpanTests.Task() {
+			@Override
+			public void run(int thread) {
+				for (int i = 0; i < READS && failure.get() == null; i++) {
+					long before = handedOut.get();
+					long micros = clock.currentTimeMicros();
+					if (micros < before) {
+						failure.set(micros + " after " + before + " was handed out");
+					}
+					raise(handedOut, micros);
+				}
+			}
+		});
+
+		assertNull(failure.get());
+	}
+
+	@Test
+	public void should_stay_close_to_the_wall_clock() throws Exception {
+		long before = System.currentTimeMillis() * 1000;
+		long micros = SystemTraceClock.INSTANCE.currentTimeMicros();
+		long anchored = SystemTraceClock.INSTANCE.anchor().currentTimeMicros();
+		long after = (System.currentTimeMillis() + 1) * 1000;
+
+		assertTrue(micros >= before - 1000 && micros <= after);
+		assertTrue(anchored >= before - 1000 && anchored <= after);
+	}
+
+	private static void raise(AtomicLong max, long value) {
+		for (;;) {
+			long current = max.get();
+			if (value <= current || max.compareAndSet(current, value)) {
+				return;
+			}
+		}
+	}
+}
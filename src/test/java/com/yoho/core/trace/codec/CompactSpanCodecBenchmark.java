@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.yoho.core.trace.Log;
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.TagKey;
+
+/**
+ * Compares the size and single-thread encoding throughput of {@link CompactSpanCodec}
+ * with {@link ZipkinJsonV2SpanEncoder} on batches of HTTP server spans with six tags
+ * and two logs each. Not a test, run it from the test classpath:
+ * <pre>
+ * java -cp target/test-classes:target/classes:... com.yoho.core.trace.codec.CompactSpanCodecBenchmark [batches]
+ * </pre>
+ */
+public class CompactSpanCodecBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	public static void main(String[] args) throws IOException {
+		int batches = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		List<Span> spans = spans(BATCH_SIZE);
+		final CompactSpanCodec compact = new CompactSpanCodec();
+		final ZipkinJsonV2SpanEncoder json = new ZipkinJsonV2SpanEncoder("benchmark");
+		final ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+
+		ByteBuffer single = ByteBuffer.allocate(4096);
+		compact.encode(spans.get(0), single);
+		System.out.printf("single span   %6d B binary vs %6d B JSON%n", single.position(),
+				jsonSize(json, Collections.singletonList(spans.get(0))));
+		buffer.clear();
+		compact.encode(spans, buffer);
+		System.out.printf("batch of %d  %6d B binary vs %6d B JSON%n", BATCH_SIZE,
+				buffer.position(), jsonSize(json, spans));
+
+		Encoder binary = new Encoder() {
+			@Override
+			public void encode(List<Span> spans, OutputStream out) {
+				buffer.clear();
+				compact.encode(spans, buffer);
+			}
+		};
+		Encoder jackson = new Encoder() {
+			@Override
+			public void encode(List<Span> spans, OutputStream out) throws IOException {
+				json.encode(spans, out);
+			}
+		};
+		// warm up both paths before measuring
+		run(binary, spans, batches / 4);
+		run(jackson, spans, batches / 4);
+		System.out.printf("throughput    %.2fM spans/s binary vs %.2fM spans/s JSON%n",
+				run(binary, spans, batches), run(jackson, spans, batches));
+	}
+
+	/**
+	 * @return millions of spans encoded per second
+	 */
+	private static double run(Encoder encoder, List<Span> spans, int batches)
+			throws IOException {
+		NullOutputStream out = new NullOutputStream();
+		long start = System.nanoTime();
+		for (int i = 0; i < batches; i++) {
+			encoder.encode(spans, out);
+		}
+		long elapsed = System.nanoTime() - start;
+		return (double) batches * spans.size() * 1000 / elapsed;
+	}
+
+	private static int jsonSize(ZipkinJsonV2SpanEncoder json, List<Span> spans)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		json.encode(spans, out);
+		return out.size();
+	}
+
+	static List<Span> spans(int count) {
+		// registered as by a tracer at startup, decoded spans would keep them by name
+		for (String key : new String[] { "http.url", "http.host", "http.path", "http.method",
+				"http.status_code", "yoho.uid" }) {
+			TagKey.of(key);
+		}
+		List<Span> spans = new ArrayList<>(count);
+		long begin = 1478000000000000L;
+		for (int i = 0; i < count; i++) {
+			spans.add(Span.builder().name("http:/api/orders").traceId(0x463ac35c9f6413adL + i / 10)
+					.spanId(0x72485a3953bb6124L + i).parent(0x1L + i / 10)
+					.beginMicros(begin + i * 1000).endMicros(begin + i * 1000 + 2500)
+					.processId("order-service").remote(true).exportable(true)
+					.tag("http.url", "http://order-service/api/orders?id=" + i)
+					.tag("http.host", "order-service").tag("http.path", "/api/orders")
+					.tag("http.method", "GET").tag("http.status_code", "200")
+					.tag("yoho.uid", Integer.toString(10000000 + i))
+					.log(Log.fromMicros(begin + i * 1000, Span.SERVER_RECV))
+					.log(Log.fromMicros(begin + i * 1000 + 2500, Span.SERVER_SEND)).build());
+		}
+		return spans;
+	}
+
+	private interface Encoder {
+
+		void encode(List<Span> spans, OutputStream out) throws IOException;
+	}
+
+	private static final class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
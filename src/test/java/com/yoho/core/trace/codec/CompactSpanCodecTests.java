@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.yoho.core.trace.Log;
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.TagKey;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactSpanCodecTests {
+
+	private final CompactSpanCodec codec = new CompactSpanCodec();
+
+	@Test
+	public void should_round_trip_a_span() {
+		Span span = Span.builder().name("http:/orders").traceId(1L).spanId(2L)
+				.parent(3L).beginMicros(1478000000123456L).endMicros(1478000000223456L)
+				.processId("order-service").exportable(true)
+				.tag("http.url", "http://localhost/orders?id=1").tag("lc", "中文")
+				.log(Log.fromMicros(1478000000124000L, "sr"))
+				.log(Log.fromMicros(1478000000223000L, "ss")).build();
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+		this.codec.encode(span, buffer);
+		buffer.flip();
+		Span decoded = this.codec.decode(buffer);
+
+		assertSpanEquals(span, decoded);
+		assertEquals(0, buffer.remaining());
+	}
+
+	@Test
+	public void should_round_trip_128_bit_trace_ids_and_remote_running_spans() {
+		Span span = Span.builder().traceIdHigh(-2L).traceId(Long.MIN_VALUE).spanId(-1L)
+				.parent(Long.MAX_VALUE).parent(7L).beginMicros(5).remote(true).build();
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+
+		this.codec.encode(span, buffer);
+		buffer.flip();
+		Span decoded = this.codec.decode(buffer);
+
+		assertSpanEquals(span, decoded);
+		assertEquals(0, decoded.getEndMicros());
+		assertTrue(decoded.isRemote());
+	}
+
+	@Test
+	public void should_round_trip_a_batch_sharing_trace_ids_and_strings() {
+		List<Span> spans = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			spans.add(Span.builder().name("span").traceIdHigh(i < 5 ? 9L : 0L)
+					.traceId(i < 5 ? 1L : 2L).spanId(100 + i).beginMicros(1000 + i)
+					.endMicros(2000 + i).exportable(true).tag("http.method", "GET")
+					.log(Log.fromMicros(1500, "cs")).build());
+		}
+		ByteBuffer batch = ByteBuffer.allocate(4096);
+		this.codec.encode(spans, batch);
+		batch.flip();
+		ByteBuffer single = ByteBuffer.allocate(4096);
+		this.codec.encode(spans.get(1), single);
+
+		List<Span> decoded = this.codec.decodeList(batch);
+
+		assertEquals(spans.size(), decoded.size());
+		for (int i = 0; i < spans.size(); i++) {
+			assertSpanEquals(spans.get(i), decoded.get(i));
+		}
+		// repeated trace ids and strings cost less than a self contained record each
+		assertTrue(batch.limit() < spans.size() * single.position());
+	}
+
+	@Test
+	public void should_write_the_same_bytes_to_streams() throws Exception {
+		List<Span> spans = Arrays.asList(
+				Span.builder().traceId(1L).spanId(1L).beginMicros(1).endMicros(2).build(),
+				Span.builder().traceId(1L).spanId(2L).beginMicros(1).parent(1L).build());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		this.codec.encode(spans, out);
+		List<Span> decoded = this.codec.decodeList(ByteBuffer.wrap(out.toByteArray()));
+
+		assertSpanEquals(spans.get(0), decoded.get(0));
+		assertSpanEquals(spans.get(1), decoded.get(1));
+	}
+
+	@Test
+	public void should_round_trip_an_empty_batch() {
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+
+		this.codec.encode(Collections.<Span>emptyList(), buffer);
+		buffer.flip();
+
+		assertTrue(this.codec.decodeList(buffer).isEmpty());
+	}
+
+	@Test
+	public void should_not_register_the_tag_keys_of_decoded_spans() throws Exception {
+		String key = "remote.only." + System.nanoTime();
+		Span span = Span.builder().traceId(1L).spanId(1L).beginMicros(1).exportable(true)
+				.tag(key, "a").tag("http.method", "GET").build();
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		int registered = TagKey.size();
+
+		this.codec.encode(span, buffer);
+		buffer.flip();
+		Span decoded = this.codec.decode(buffer);
+
+		assertNull(TagKey.find(key));
+		assertEquals(registered, TagKey.size());
+		assertEquals(TagKey.UNREGISTERED_ID, decoded.getTagKeyId(0));
+		assertEquals("a", decoded.getTag(key));
+		assertSpanEquals(span, decoded);
+
+		// forwarding the decoded span keeps the key
+		buffer.clear();
+		this.codec.encode(Arrays.asList(decoded, decoded), buffer);
+		buffer.flip();
+		assertEquals("a", this.codec.decodeList(buffer).get(1).getTag(key));
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		new ZipkinJsonV2SpanEncoder("test").encode(Collections.singletonList(decoded), json);
+		assertTrue(json.toString("UTF-8").contains("\"" + key + "\":\"a\""));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void should_reject_a_truncated_string() {
+		Span span = Span.builder().traceId(1L).spanId(1L).beginMicros(1)
+				.name("a rather long span name").build();
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		this.codec.encode(span, buffer);
+		buffer.flip();
+		buffer.limit(buffer.limit() - 20);
+
+		this.codec.decode(buffer);
+	}
+
+	private static void assertSpanEquals(Span expected, Span actual) {
+		assertEquals(expected.getTraceIdHigh(), actual.getTraceIdHigh());
+		assertEquals(expected.getTraceId(), actual.getTraceId());
+		assertEquals(expected.getSpanId(), actual.getSpanId());
+		assertEquals(expected.getParents(), actual.getParents());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getProcessId(), actual.getProcessId());
+		assertEquals(expected.getBeginMicros(), actual.getBeginMicros());
+		assertEquals(expected.getEndMicros(), actual.getEndMicros());
+		assertEquals(expected.isRemote(), actual.isRemote());
+		assertEquals(expected.isExportable(), actual.isExportable());
+		assertEquals(expected.tags(), actual.tags());
+		assertEquals(expected.getLogCount(), actual.getLogCount());
+		for (int i = 0; i < expected.getLogCount(); i++) {
+			assertEquals(expected.getLogTimestampMicros(i), actual.getLogTimestampMicros(i));
+			assertEquals(expected.getLogEvent(i), actual.getLogEvent(i));
+		}
+	}
+}
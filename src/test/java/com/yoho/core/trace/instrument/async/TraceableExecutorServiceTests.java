@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.instrument.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.yoho.core.trace.DefaultIdGenerator;
+import com.yoho.core.trace.DefaultSpanNamer;
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanReporter;
+import com.yoho.core.trace.TraceKeys;
+import com.yoho.core.trace.log.Slf4jSpanLogger;
+import com.yoho.core.trace.sampler.AlwaysSampler;
+import com.yoho.core.trace.trace.DefaultTracer;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TraceableExecutorServiceTests {
+
+	private final List<Span> reported = new CopyOnWriteArrayList<>();
+
+	private final DefaultTracer tracer = new DefaultTracer(new AlwaysSampler(),
+			new DefaultIdGenerator(), new DefaultSpanNamer(), new Slf4jSpanLogger(""),
+			new SpanReporter() {
+				@Override
+				public void report(Span span) {
+					TraceableExecutorServiceTests.this.reported.add(span);
+				}
+			});
+
+	private final TraceKeys.Async keys = new TraceKeys().getAsync();
+
+	private final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+	private final TraceableExecutorService executor = new TraceableExecutorService(
+			this.pool, this.tracer, new TraceKeys(), new DefaultSpanNamer(), "task");
+
+	@After
+	public void clean() {
+		this.pool.shutdownNow();
+	}
+
+	@Test
+	public void should_make_the_tasks_of_invoke_all_children_of_a_grouping_span()
+			throws Exception {
+		Span root = this.tracer.createSpan("root");
+		List<Span> seen = new CopyOnWriteArrayList<>();
+
+		this.executor.invokeAll(Arrays.asList(task(seen, 0), task(seen, 0), task(seen, 0)));
+
+		assertEquals(root, this.tracer.getCurrentSpan());
+		this.tracer.close(root);
+		Span grouping = reported("invokeAll");
+		assertTrue(grouping.hasParent(root.getSpanId()));
+		assertEquals(3, seen.size());
+		for (Span task : seen) {
+			assertEquals(root.getTraceId(), task.getTraceId());
+			assertTrue(task.hasParent(grouping.getSpanId()));
+		}
+	}
+
+	@Test
+	public void should_tag_the_queue_wait_and_run_time_of_every_task() throws Exception {
+		Span root = this.tracer.createSpan("root");
+		List<Span> seen = new CopyOnWriteArrayList<>();
+
+		this.executor.invokeAll(Arrays.asList(task(seen, 0), task(seen, 20)));
+		this.tracer.close(root);
+
+		for (Span task : seen) {
+			assertNotNull(task.getTag(key(this.keys.getQueueWaitKey())));
+			assertNotNull(task.getTag(key(this.keys.getThreadNameKey())));
+			assertTrue(Long.parseLong(task.getTag(key(this.keys.getRunTimeKey()))) >= 0);
+		}
+		assertTrue(Long.parseLong(seen.get(slowest(seen)).getTag(
+				key(this.keys.getRunTimeKey()))) >= TimeUnit.MILLISECONDS.toMicros(20));
+	}
+
+	@Test
+	public void should_tag_the_grouping_span_with_the_slowest_task() throws Exception {
+		Span root = this.tracer.createSpan("root");
+		List<Span> seen = new CopyOnWriteArrayList<>();
+
+		String result = this.executor.invokeAny(Arrays.asList(task(seen, 50)));
+		this.executor.invokeAll(Arrays.asList(task(seen, 0), task(seen, 50), task(seen, 0)));
+		this.tracer.close(root);
+
+		assertEquals("done", result);
+		assertEquals(seen.get(0).spanIdString(),
+				reported("invokeAny").getTag(key(this.keys.getSlowestTaskKey())));
+		List<Span> all = seen.subList(1, seen.size());
+		assertEquals(all.get(slowest(all)).spanIdString(),
+				reported("invokeAll").getTag(key(this.keys.getSlowestTaskKey())));
+	}
+
+	@Test
+	public void should_not_group_the_tasks_when_not_tracing() throws Exception {
+		List<Span> seen = new CopyOnWriteArrayList<>();
+
+		this.executor.invokeAll(Arrays.asList(task(seen, 0), task(seen, 0)));
+		this.executor.invokeAny(Arrays.asList(task(seen, 0)));
+
+		assertTrue(this.reported.isEmpty());
+		assertEquals(Arrays.asList(null, null, null), seen);
+		assertNull(this.tracer.getCurrentSpan());
+	}
+
+	private Callable<String> task(final List<Span> seen, final long sleepMillis) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				Span span = TraceableExecutorServiceTests.this.tracer.getCurrentSpan();
+				seen.add(span);
+				Thread.sleep(sleepMillis);
+				return "done";
+			}
+		};
+	}
+
+	private String key(String name) {
+		return this.keys.getPrefix() + name;
+	}
+
+	private int slowest(List<Span> tasks) {
+		List<Long> runTimes = new ArrayList<>();
+		for (Span task : tasks) {
+			runTimes.add(Long.valueOf(task.getTag(key(this.keys.getRunTimeKey()))));
+		}
+		return runTimes.indexOf(Collections.max(runTimes));
+	}
+
+	private Span reported(String name) {
+		for (Span span : this.reported) {
+			if (name.equals(span.getName())) {
+				return span;
+			}
+		}
+		throw new AssertionError("no " + name + " span in " + this.reported);
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.instrument.async;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.yoho.core.trace.DefaultIdGenerator;
+import com.yoho.core.trace.DefaultSpanNamer;
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanReporter;
+import com.yoho.core.trace.TraceKeys;
+import com.yoho.core.trace.log.Slf4jSpanLogger;
+import com.yoho.core.trace.sampler.AlwaysSampler;
+import com.yoho.core.trace.trace.DefaultTracer;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TraceableStageExecutorTests {
+
+	private static final int STAGES = 4;
+
+	private final List<Span> reported = new CopyOnWriteArrayList<>();
+
+	private final DefaultTracer tracer = new DefaultTracer(new AlwaysSampler(),
+			new DefaultIdGenerator(), new DefaultSpanNamer(), new Slf4jSpanLogger(""),
+			new SpanReporter() {
+				@Override
+				public void report(Span span) {
+					TraceableStageExecutorTests.this.reported.add(span);
+				}
+			});
+
+	private final ExecutorService first = Executors.newSingleThreadExecutor();
+
+	private final ExecutorService second = Executors.newSingleThreadExecutor();
+
+	@After
+	public void clean() {
+		this.first.shutdownNow();
+		this.second.shutdownNow();
+	}
+
+	@Test
+	public void should_carry_the_trace_along_stages_on_two_executors() throws Exception {
+		Span root = this.tracer.createSpan("root");
+
+		List<Span> seen = chain(stageExecutor(this.first, false),
+				stageExecutor(this.second, false));
+		this.tracer.close(root);
+
+		assertEquals(STAGES, seen.size());
+		for (Span span : seen) {
+			assertEquals(root, span);
+		}
+	}
+
+	@Test
+	public void should_parent_every_stage_span_on_the_span_the_chain_started_from()
+			throws Exception {
+		Span root = this.tracer.createSpan("root");
+
+		List<Span> seen = chain(stageExecutor(this.first, true),
+				stageExecutor(this.second, true));
+		this.tracer.close(root);
+		awaitStages();
+
+		assertEquals(STAGES, seen.size());
+		for (Span span : seen) {
+			assertEquals(root.getTraceId(), span.getTraceId());
+			assertNotEquals(root.getSpanId(), span.getSpanId());
+			assertTrue(span + " is a child of the root", span.hasParent(root.getSpanId()));
+		}
+		assertEquals(STAGES + 1, this.reported.size());
+	}
+
+	@Test
+	public void should_run_stages_as_they_are_when_not_tracing() throws Exception {
+		List<Span> seen = chain(stageExecutor(this.first, true),
+				stageExecutor(this.second, false));
+		awaitStages();
+
+		for (Span span : seen) {
+			assertNull(span);
+		}
+		assertTrue(this.reported.isEmpty());
+		assertFalse(this.tracer.isTracing());
+	}
+
+	private TraceableStageExecutor stageExecutor(ExecutorService pool, boolean stageSpans) {
+		return new TraceableStageExecutor(this.tracer, new TraceKeys(),
+				new DefaultSpanNamer(), pool, stageSpans, "stage");
+	}
+
+	/**
+	 * Runs {@link #STAGES} stages alternating between the executors and collects the
+	 * span current in each
+	 */
+	private List<Span> chain(TraceableStageExecutor a, TraceableStageExecutor b)
+			throws Exception {
+		final List<Span> seen = new CopyOnWriteArrayList<>();
+		Function<Integer, Integer> stage = new Function<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer index) {
+				seen.add(TraceableStageExecutorTests.this.tracer.getCurrentSpan());
+				return index + 1;
+			}
+		};
+		CompletableFuture.supplyAsync(new Supplier<Integer>() {
+			@Override
+			public Integer get() {
+				seen.add(TraceableStageExecutorTests.this.tracer.getCurrentSpan());
+				return 1;
+			}
+		}, a).thenApplyAsync(stage, b).thenApplyAsync(stage, a).thenApplyAsync(stage, b)
+				.get(5, TimeUnit.SECONDS);
+		return seen;
+	}
+
+	/**
+	 * The last stage span closes after its future completes
+	 */
+	private void awaitStages() throws InterruptedException {
+		this.first.shutdown();
+		this.second.shutdown();
+		assertTrue(this.first.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(this.second.awaitTermination(5, TimeUnit.SECONDS));
+	}
+}
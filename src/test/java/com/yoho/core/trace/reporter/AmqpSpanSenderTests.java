@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.reporter;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.codec.CompactSpanCodec;
+import org.junit.Test;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AmqpSpanSenderTests {
+
+	private final List<Object[]> published = new ArrayList<>();
+	private AmqpException failure;
+
+	/** records {@code send(exchange, routingKey, message)}, rejects any other call */
+	private final AmqpTemplate template = (AmqpTemplate) Proxy.newProxyInstance(
+			AmqpTemplate.class.getClassLoader(), new Class<?>[] { AmqpTemplate.class },
+			new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (!"send".equals(method.getName()) || args.length != 3) {
+						throw new UnsupportedOperationException(method.toString());
+					}
+					if (AmqpSpanSenderTests.this.failure != null) {
+						throw AmqpSpanSenderTests.this.failure;
+					}
+					AmqpSpanSenderTests.this.published.add(args);
+					return null;
+				}
+			});
+
+	private final AmqpSpanSender sender = new AmqpSpanSender(this.template, "trace", "spans");
+
+	@Test
+	public void should_publish_batch_as_one_persistent_message() {
+		Span first = span(1, 2);
+		Span second = span(1, 3);
+
+		this.sender.send(Arrays.asList(first, second));
+
+		assertEquals(1, this.published.size());
+		Object[] args = this.published.get(0);
+		assertEquals("trace", args[0]);
+		assertEquals("spans", args[1]);
+		Message message = (Message) args[2];
+		assertEquals(CompactSpanCodec.MEDIA_TYPE, message.getMessageProperties().getContentType());
+		assertSame(MessageDeliveryMode.PERSISTENT,
+				message.getMessageProperties().getDeliveryMode());
+		assertEquals(2, message.getMessageProperties().getHeaders()
+				.get(AmqpSpanSender.SPAN_COUNT_HEADER));
+		List<Span> decoded = new CompactSpanCodec().decodeList(ByteBuffer.wrap(message.getBody()));
+		assertEquals(Arrays.asList(first, second), decoded);
+		assertEquals(1, this.sender.getSentMessages());
+		assertEquals(message.getBody().length, this.sender.getSentBytes());
+	}
+
+	@Test
+	public void should_not_publish_empty_batch() {
+		this.sender.send(Collections.<Span>emptyList());
+
+		assertTrue(this.published.isEmpty());
+		assertEquals(0, this.sender.getSentMessages());
+	}
+
+	@Test
+	public void should_use_configured_delivery_mode() {
+		this.sender.setDeliveryMode(MessageDeliveryMode.NON_PERSISTENT);
+
+		this.sender.send(Collections.singletonList(span(1, 2)));
+
+		Message message = (Message) this.published.get(0)[2];
+		assertSame(MessageDeliveryMode.NON_PERSISTENT,
+				message.getMessageProperties().getDeliveryMode());
+	}
+
+	@Test
+	public void should_propagate_failed_publish() {
+		this.failure = new AmqpConnectException(new java.net.ConnectException("refused"));
+
+		try {
+			this.sender.send(Collections.singletonList(span(1, 2)));
+			fail("expected the publish failure");
+		}
+		catch (AmqpException e) {
+			assertSame(this.failure, e);
+		}
+		assertEquals(0, this.sender.getSentMessages());
+	}
+
+	private static Span span(long traceId, long spanId) {
+		return Span.builder().traceId(traceId).spanId(spanId).name("span-" + spanId)
+				.begin(1000).end(2000).build();
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.reporter;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yoho.core.trace.Span;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsyncBatchingSpanReporterTests {
+
+	private static final int THREADS = 4;
+
+	private final AtomicLong sent = new AtomicLong();
+
+	private final SpanSender sender = new SpanSender() {
+		@Override
+		public void send(List<Span> spans) {
+			AsyncBatchingSpanReporterTests.this.sent.addAndGet(spans.size());
+		}
+	};
+
+	@Test
+	public void should_send_what_was_queued_when_closed() {
+		AsyncBatchingSpanReporter reporter = new AsyncBatchingSpanReporter(this.sender, 16, 2,
+				60000);
+
+		for (int i = 0; i < 5; i++) {
+			reporter.report(span(i));
+		}
+		reporter.close();
+
+		assertEquals(5, this.sent.get());
+		assertEquals(5, reporter.getSentSpans());
+		assertEquals(0, reporter.getQueueDepth());
+	}
+
+	@Test
+	public void should_send_or_drop_every_span_reported_while_closing() throws Exception {
+		for (int round = 0; round < 50; round++) {
+			final AsyncBatchingSpanReporter reporter = new AsyncBatchingSpanReporter(
+					this.sender, 8192, 100, 1);
+			final CountDownLatch reporting = new CountDownLatch(THREADS);
+			final int spans = 1000;
+			Thread[] threads = new Thread[THREADS];
+			for (int t = 0; t < THREADS; t++) {
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						reporting.countDown();
+						for (int i = 0; i < spans; i++) {
+							reporter.report(span(i + 1));
+						}
+					}
+				};
+				threads[t].start();
+			}
+			reporting.await();
+			reporter.close();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			assertEquals("round " + round, THREADS * spans,
+					reporter.getSentSpans() + reporter.getDroppedAfterClose());
+			assertEquals(0, reporter.getQueueDepth());
+		}
+	}
+
+	@Test
+	public void should_flush_once_when_closed_by_racing_threads() throws Exception {
+		final AsyncBatchingSpanReporter reporter = new AsyncBatchingSpanReporter(this.sender,
+				16, 100, 60000);
+		for (int i = 0; i < 3; i++) {
+			reporter.report(span(i + 1));
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] closers = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			closers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					reporter.close();
+				}
+			};
+			closers[t].start();
+		}
+		start.countDown();
+		for (Thread closer : closers) {
+			closer.join();
+		}
+
+		assertEquals(3, reporter.getSentSpans());
+		assertEquals(1, reporter.getSentBatches());
+		reporter.report(span(4));
+		assertEquals(1, reporter.getDroppedAfterClose());
+	}
+
+	private static Span span(long id) {
+		return Span.builder().traceId(id).spanId(id).exportable(true).build();
+	}
+}
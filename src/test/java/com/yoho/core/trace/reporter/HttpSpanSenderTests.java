@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.reporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.codec.CompactSpanCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpSpanSenderTests {
+
+	private final CompactSpanCodec codec = new CompactSpanCodec();
+
+	/** statuses to respond with, 202 once used up */
+	private final ConcurrentLinkedQueue<Integer> statuses = new ConcurrentLinkedQueue<>();
+
+	private final List<Request> requests = new CopyOnWriteArrayList<>();
+
+	private HttpServer server;
+
+	private HttpSpanSender sender;
+
+	@Before
+	public void start() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/api/v2/spans", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				HttpSpanSenderTests.this.requests.add(new Request(exchange.getRequestMethod(),
+						exchange.getRequestHeaders(), read(exchange.getRequestBody())));
+				Integer status = HttpSpanSenderTests.this.statuses.poll();
+				exchange.sendResponseHeaders(status != null ? status : 202, -1);
+				exchange.close();
+			}
+		});
+		this.server.start();
+		this.sender = new HttpSpanSender("http://127.0.0.1:" + this.server.getAddress().getPort()
+				+ "/api/v2/spans", this.codec);
+		this.sender.setInitialBackoffMillis(1);
+	}
+
+	@After
+	public void stop() {
+		this.server.stop(0);
+	}
+
+	@Test
+	public void should_post_the_encoded_batch() {
+		List<Span> spans = Arrays.asList(span(1), span(2));
+
+		this.sender.send(spans);
+
+		assertEquals(1, this.requests.size());
+		Request request = this.requests.get(0);
+		assertEquals("POST", request.method);
+		assertEquals(CompactSpanCodec.MEDIA_TYPE, request.headers.getFirst("Content-Type"));
+		assertNull(request.headers.getFirst("Content-Encoding"));
+		assertEquals(spans, decode(request.body));
+		assertEquals(request.body.length, this.sender.getSentBytes());
+	}
+
+	@Test
+	public void should_gzip_bodies_above_the_threshold() throws IOException {
+		this.sender.setCompressionThreshold(0);
+		List<Span> spans = Arrays.asList(span(1), span(2));
+
+		this.sender.send(spans);
+
+		Request request = this.requests.get(0);
+		assertEquals("gzip", request.headers.getFirst("Content-Encoding"));
+		byte[] body = read(new GZIPInputStream(new ByteArrayInputStream(request.body)));
+		assertEquals(spans, decode(body));
+	}
+
+	@Test
+	public void should_retry_unavailable_collectors() {
+		this.statuses.add(503);
+		this.statuses.add(429);
+
+		this.sender.send(Collections.singletonList(span(1)));
+
+		assertEquals(3, this.requests.size());
+		assertEquals(2, this.sender.getRetries());
+		assertTrue(Arrays.equals(this.requests.get(0).body, this.requests.get(2).body));
+	}
+
+	@Test
+	public void should_give_up_after_the_max_retries() {
+		this.sender.setMaxRetries(2);
+		for (int i = 0; i < 5; i++) {
+			this.statuses.add(500);
+		}
+
+		try {
+			this.sender.send(Collections.singletonList(span(1)));
+			fail("expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+
+		assertEquals(3, this.requests.size());
+		assertEquals(0, this.sender.getSentBytes());
+	}
+
+	@Test
+	public void should_not_retry_rejected_batches() {
+		this.statuses.add(400);
+
+		try {
+			this.sender.send(Collections.singletonList(span(1)));
+			fail("expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+		}
+
+		assertEquals(1, this.requests.size());
+		assertEquals(0, this.sender.getRetries());
+	}
+
+	@Test
+	public void should_retry_when_the_collector_is_down() throws Exception {
+		this.server.stop(0);
+		this.sender.setMaxRetries(1);
+
+		try {
+			this.sender.send(Collections.singletonList(span(1)));
+			fail("expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+
+		assertEquals(1, this.sender.getRetries());
+	}
+
+	@Test
+	public void should_not_post_empty_batches() {
+		this.sender.send(Collections.<Span>emptyList());
+
+		assertTrue(this.requests.isEmpty());
+	}
+
+	private List<Span> decode(byte[] body) {
+		return this.codec.decodeList(ByteBuffer.wrap(body));
+	}
+
+	private static Span span(long id) {
+		return Span.builder().traceId(1L).spanId(id).name("span").beginMicros(1000)
+				.endMicros(2000).exportable(true).tag("http.method", "GET").build();
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static final class Request {
+
+		final String method;
+
+		final Headers headers;
+
+		final byte[] body;
+
+		Request(String method, Headers headers, byte[] body) {
+			this.method = method;
+			this.headers = headers;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.yoho.core.trace.DefaultIdGenerator;
+import com.yoho.core.trace.DefaultSpanNamer;
+import com.yoho.core.trace.Span;
+import com.yoho.core.trace.SpanInScope;
+import com.yoho.core.trace.SpanReporter;
+import com.yoho.core.trace.TagKey;
+import com.yoho.core.trace.Tracer;
+import com.yoho.core.trace.log.SpanLogger;
+import com.yoho.core.trace.Sampler;
+import com.yoho.core.trace.sampler.AlwaysSampler;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultTracerTests {
+
+	private final List<Span> reported = new ArrayList<>();
+
+	private final DefaultTracer tracer = new DefaultTracer(new AlwaysSampler(),
+			new DefaultIdGenerator(), new DefaultSpanNamer(), new SpanLogger() {
+				@Override
+				public void logStartedSpan(Span parent, Span span) {
+				}
+
+				@Override
+				public void logContinuedSpan(Span span) {
+				}
+
+				@Override
+				public void logStoppedSpan(Span parent, Span span) {
+				}
+			}, new SpanReporter() {
+				@Override
+				public void report(Span span) {
+					DefaultTracerTests.this.reported.add(span);
+				}
+			});
+
+	@After
+	public void clean() {
+		SpanContextHolder.removeCurrentSpan();
+	}
+
+	@Test
+	public void should_restore_the_parent_when_a_child_is_closed() {
+		Span parent = this.tracer.createSpan("parent");
+		Span child = this.tracer.createSpan("child");
+
+		assertTrue(child.hasParent(parent.getSpanId()));
+		assertSame(parent, this.tracer.close(child));
+		assertEquals(parent, this.tracer.getCurrentSpan());
+		this.tracer.close(parent);
+
+		assertFalse(this.tracer.isTracing());
+		assertEquals(2, this.reported.size());
+		assertEquals(child.getSpanId(), this.reported.get(0).getSpanId());
+	}
+
+	@Test
+	public void should_pop_a_remote_parent_together_with_its_child() {
+		Span remote = Span.builder().traceId(1L).spanId(2L).remote(true).exportable(true)
+				.build();
+
+		Span child = this.tracer.createSpan("child", remote);
+		this.tracer.close(child);
+
+		assertFalse(this.tracer.isTracing());
+		assertEquals(1, this.reported.size());
+	}
+
+	@Test
+	public void should_make_the_span_current_and_restore_the_previous_one() {
+		Span previous = this.tracer.createSpan("previous");
+		Span other = Span.builder().traceId(1L).spanId(2L).build();
+
+		SpanInScope scope = this.tracer.withSpanInScope(other);
+		assertSame(other, this.tracer.getCurrentSpan());
+		scope.close();
+
+		assertSame(previous, this.tracer.getCurrentSpan());
+		this.tracer.close(previous);
+		assertEquals(1, this.reported.size());
+	}
+
+	@Test
+	public void should_leave_an_empty_thread_empty_once_the_scope_is_closed() {
+		Span span = Span.builder().traceId(1L).spanId(2L).build();
+
+		SpanInScope scope = this.tracer.withSpanInScope(span);
+		assertTrue(this.tracer.isTracing());
+		scope.close();
+		scope.close();
+
+		assertFalse(this.tracer.isTracing());
+	}
+
+	@Test
+	public void should_pop_spans_left_open_within_the_scope() {
+		Span previous = this.tracer.createSpan("previous");
+		Span span = Span.builder().traceId(1L).spanId(2L).exportable(true).build();
+
+		SpanInScope scope = this.tracer.withSpanInScope(span);
+		this.tracer.createSpan("forgotten");
+		this.tracer.continueSpan(span);
+		scope.close();
+
+		assertSame(previous, this.tracer.getCurrentSpan());
+	}
+
+	@Test
+	public void should_restore_nested_scopes_in_order() {
+		Span first = Span.builder().traceId(1L).spanId(1L).build();
+		Span second = Span.builder().traceId(1L).spanId(2L).build();
+
+		SpanInScope outer = this.tracer.withSpanInScope(first);
+		SpanInScope inner = this.tracer.withSpanInScope(second);
+		assertSame(second, this.tracer.getCurrentSpan());
+		inner.close();
+		assertSame(first, this.tracer.getCurrentSpan());
+		outer.close();
+
+		assertNull(this.tracer.getCurrentSpan());
+	}
+
+	@Test
+	public void should_not_change_the_thread_for_a_null_or_current_span() {
+		Span current = this.tracer.createSpan("current");
+
+		this.tracer.withSpanInScope(null).close();
+		this.tracer.withSpanInScope(current).close();
+
+		assertSame(current, this.tracer.getCurrentSpan());
+	}
+
+	@Test
+	public void should_fall_back_to_continuing_the_span_for_a_tracer_without_scopes() {
+		LegacyTracer legacy = new LegacyTracer();
+		Span previous = legacy.createSpan("previous");
+		Span other = Span.builder().traceId(1L).spanId(2L).build();
+
+		SpanInScope scope = legacy.withSpanInScope(other);
+		assertEquals(other, legacy.getCurrentSpan());
+		scope.close();
+		scope.close();
+
+		assertEquals(previous, legacy.getCurrentSpan());
+	}
+
+	@Test
+	public void should_pass_the_key_name_on_for_a_tracer_without_tag_keys() {
+		LegacyTracer legacy = new LegacyTracer();
+		Span span = legacy.createSpan("span");
+
+		legacy.addTag(TagKey.LOCAL_COMPONENT, "test");
+
+		assertEquals("test", span.getTag(TagKey.LOCAL_COMPONENT.getName()));
+		assertEquals(1, legacy.namedTags);
+	}
+
+	/**
+	 * Implements only what {@link Tracer} required before it had default methods
+	 */
+	private final class LegacyTracer implements Tracer {
+
+		private final Tracer delegate = DefaultTracerTests.this.tracer;
+
+		int namedTags;
+
+		@Override
+		public Span createSpan(String name) {
+			return this.delegate.createSpan(name);
+		}
+
+		@Override
+		public Span createSpan(String name, Span parent) {
+			return this.delegate.createSpan(name, parent);
+		}
+
+		@Override
+		public Span createSpan(String name, Sampler sampler) {
+			return this.delegate.createSpan(name, sampler);
+		}
+
+		@Override
+		public Span continueSpan(Span span) {
+			return this.delegate.continueSpan(span);
+		}
+
+		@Override
+		public void addTag(String key, String value) {
+			this.namedTags++;
+			this.delegate.addTag(key, value);
+		}
+
+		@Override
+		public Span detach(Span span) {
+			return this.delegate.detach(span);
+		}
+
+		@Override
+		public Span close(Span span) {
+			return this.delegate.close(span);
+		}
+
+		@Override
+		public <V> Callable<V> wrap(Callable<V> callable) {
+			return this.delegate.wrap(callable);
+		}
+
+		@Override
+		public Runnable wrap(Runnable runnable) {
+			return this.delegate.wrap(runnable);
+		}
+
+		@Override
+		public Span getCurrentSpan() {
+			return this.delegate.getCurrentSpan();
+		}
+
+		@Override
+		public boolean isTracing() {
+			return this.delegate.isTracing();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.trace;
+
+import com.yoho.core.trace.Span;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SpanStackTests {
+
+	private final SpanStack stack = new SpanStack();
+
+	@Test
+	public void should_be_empty_until_pushed() {
+		assertTrue(this.stack.isEmpty());
+		assertNull(this.stack.peek());
+
+		this.stack.close();
+		this.stack.popTo(0);
+
+		assertEquals(0, this.stack.depth());
+	}
+
+	@Test
+	public void should_not_push_the_current_span_twice() {
+		Span span = span(1);
+
+		this.stack.push(span, false);
+		this.stack.push(span(1), false);
+
+		assertEquals(1, this.stack.depth());
+		assertSame(span, this.stack.peek());
+	}
+
+	@Test
+	public void should_pop_auto_close_spans_with_the_span_above_them() {
+		Span root = span(1);
+		Span remoteParent = span(2);
+		Span child = span(3);
+		this.stack.push(root, false);
+		this.stack.push(remoteParent, true);
+		this.stack.push(child, false);
+
+		this.stack.close();
+
+		assertEquals(1, this.stack.depth());
+		assertSame(root, this.stack.peek());
+		this.stack.close();
+		assertTrue(this.stack.isEmpty());
+	}
+
+	@Test
+	public void should_pop_down_to_the_given_depth() {
+		for (int i = 1; i <= 5; i++) {
+			this.stack.push(span(i), i % 2 == 0);
+		}
+
+		this.stack.popTo(2);
+
+		assertEquals(2, this.stack.depth());
+		assertEquals(2, this.stack.peek().getSpanId());
+		this.stack.popTo(3);
+		assertEquals(2, this.stack.depth());
+	}
+
+	@Test
+	public void should_grow_and_reuse_after_clear() {
+		for (int i = 1; i <= 100; i++) {
+			this.stack.push(span(i), false);
+		}
+		assertEquals(100, this.stack.depth());
+		assertEquals(100, this.stack.peek().getSpanId());
+
+		this.stack.clear();
+		assertTrue(this.stack.isEmpty());
+		this.stack.push(span(1), false);
+		assertEquals(1, this.stack.peek().getSpanId());
+	}
+
+	@Test
+	public void should_discard_a_stack_deeper_than_the_maximum() {
+		for (int i = 1; i <= SpanStack.MAX_DEPTH; i++) {
+			this.stack.push(span(i), false);
+		}
+
+		this.stack.push(span(SpanStack.MAX_DEPTH + 1), false);
+
+		assertEquals(1, this.stack.depth());
+		assertEquals(SpanStack.MAX_DEPTH + 1, this.stack.peek().getSpanId());
+	}
+
+	private static Span span(long id) {
+		return Span.builder().traceId(1L).spanId(id).build();
+	}
+}
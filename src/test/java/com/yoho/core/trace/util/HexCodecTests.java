@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.util;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class HexCodecTests {
+
+	@Test
+	public void should_encode_without_leading_zeros() {
+		assertEquals("0", HexCodec.toHex(0L));
+		assertEquals("a", HexCodec.toHex(10L));
+		assertEquals("ffffffffffffffff", HexCodec.toHex(-1L));
+		assertEquals(Long.toHexString(0x0123456789abcdefL), HexCodec.toHex(0x0123456789abcdefL));
+	}
+
+	@Test
+	public void should_pad_the_lower_half_of_128_bit_ids() {
+		assertEquals("1000000000000000a", HexCodec.toHex(1L, 10L));
+		assertEquals("a", HexCodec.toHex(0L, 10L));
+		assertEquals("ffffffffffffffff0000000000000000", HexCodec.toHex(-1L, 0L));
+	}
+
+	@Test
+	public void should_round_trip_random_ids() {
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			long high = i % 2 == 0 ? 0 : random.nextLong();
+			long low = random.nextLong();
+			String hex = HexCodec.toHex(high, low);
+			assertEquals(high, HexCodec.parseHighHex(hex));
+			assertEquals(low, HexCodec.parseLowHex(hex));
+		}
+	}
+
+	@Test
+	public void should_parse_upper_case_digits() {
+		assertEquals(0xABCDEFL, HexCodec.parseLowHex("ABCDEF"));
+	}
+
+	@Test
+	public void should_split_128_bit_ids() {
+		String hex = "463ac35c9f6413ad48485a3953bb6124";
+
+		assertEquals(0x463ac35c9f6413adL, HexCodec.parseHighHex(hex));
+		assertEquals(0x48485a3953bb6124L, HexCodec.parseLowHex(hex));
+		assertEquals(0L, HexCodec.parseHighHex("48485a3953bb6124"));
+	}
+
+	@Test
+	public void should_read_the_rightmost_32_chars_of_longer_ids() {
+		String hex = "0123463ac35c9f6413ad48485a3953bb6124";
+
+		assertEquals(0x463ac35c9f6413adL, HexCodec.parseHighHex(hex));
+		assertEquals(0x48485a3953bb6124L, HexCodec.parseLowHex(hex));
+	}
+
+	@Test
+	public void should_reject_invalid_chars() {
+		try {
+			HexCodec.parseLowHex("48485a3953bb612x");
+			fail("expected NumberFormatException");
+		}
+		catch (NumberFormatException e) {
+		}
+		try {
+			HexCodec.parseHex("abc", 1, 1);
+			fail("expected NumberFormatException");
+		}
+		catch (NumberFormatException e) {
+		}
+	}
+
+	@Test
+	public void should_write_16_chars_padded_with_zeros() {
+		char[] buffer = new char[18];
+
+		assertEquals(17, HexCodec.writeHex(255L, buffer, 1));
+		assertEquals("00000000000000ff", new String(buffer, 1, 16));
+	}
+}
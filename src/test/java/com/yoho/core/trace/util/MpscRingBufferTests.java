@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yoho.core.trace.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MpscRingBufferTests {
+
+	@Test
+	public void should_round_capacity_up_to_a_power_of_two() {
+		assertEquals(1, new MpscRingBuffer<String>(1).capacity());
+		assertEquals(8, new MpscRingBuffer<String>(5).capacity());
+		assertEquals(1024, new MpscRingBuffer<String>(1024).capacity());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void should_reject_non_positive_capacity() {
+		new MpscRingBuffer<String>(0);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void should_reject_null_elements() {
+		new MpscRingBuffer<String>(4).offer(null);
+	}
+
+	@Test
+	public void should_poll_in_offer_order() {
+		MpscRingBuffer<String> buffer = new MpscRingBuffer<>(4);
+
+		assertNull(buffer.poll());
+		assertTrue(buffer.offer("a"));
+		assertTrue(buffer.offer("b"));
+
+		assertEquals(2, buffer.size());
+		assertEquals("a", buffer.poll());
+		assertEquals("b", buffer.poll());
+		assertNull(buffer.poll());
+		assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	public void should_reject_offers_when_full_and_reuse_freed_slots() {
+		MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(i));
+		}
+
+		assertFalse(buffer.offer(4));
+		assertEquals(Integer.valueOf(0), buffer.poll());
+		assertTrue(buffer.offer(4));
+		assertFalse(buffer.offer(5));
+
+		List<Integer> drained = new ArrayList<>();
+		assertEquals(3, buffer.drainTo(drained, 3));
+		assertEquals(Arrays.asList(1, 2, 3), drained);
+		assertEquals(1, buffer.drainTo(drained, 10));
+		assertEquals(Integer.valueOf(4), drained.get(3));
+	}
+
+	@Test
+	public void should_hand_every_element_of_concurrent_producers_to_the_consumer_once()
+			throws Exception {
+		final int producers = 4;
+		final int perProducer = 100000;
+		final MpscRingBuffer<Long> buffer = new MpscRingBuffer<>(64);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final long producer = p;
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					for (long i = 0; i < perProducer; i++) {
+						Long element = producer * perProducer + i;
+						while (!buffer.offer(element)) {
+							Thread.yield();
+						}
+					}
+				}
+			};
+			threads[p].start();
+		}
+		start.countDown();
+
+		// per producer the elements are consumed in the order they were offered
+		long[] next = new long[producers];
+		int received = 0;
+		List<Long> batch = new ArrayList<>();
+		while (received < producers * perProducer) {
+			batch.clear();
+			if (buffer.drainTo(batch, 16) == 0) {
+				Thread.yield();
+				continue;
+			}
+			for (Long element : batch) {
+				int producer = (int) (element / perProducer);
+				assertEquals(producer * (long) perProducer + next[producer], element.longValue());
+				next[producer]++;
+			}
+			received += batch.size();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (long count : next) {
+			assertEquals(perProducer, count);
+		}
+		assertNull(buffer.poll());
+		assertEquals(0, buffer.size());
+	}
+}